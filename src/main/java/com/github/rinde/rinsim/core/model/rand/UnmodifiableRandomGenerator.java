@@ -99,6 +99,11 @@ class UnmodifiableRandomGenerator implements RandomGenerator {
 	  return delegateRng.nextGmmPoint();
   }
 
+  @Override
+  public void nextGmmPoints(double[][] out) {
+    delegateRng.nextGmmPoints(out);
+  }
+
 }
 
 
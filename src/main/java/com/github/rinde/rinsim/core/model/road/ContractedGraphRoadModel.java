@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.core.model.road;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+
+import javax.measure.Measure;
+import javax.measure.quantity.Duration;
+import javax.measure.quantity.Velocity;
+import javax.measure.unit.Unit;
+
+import com.github.rinde.rinsim.core.model.DependencyProvider;
+import com.github.rinde.rinsim.core.model.ModelBuilder.AbstractModelBuilder;
+import com.github.rinde.rinsim.geom.ContractionHierarchy;
+import com.github.rinde.rinsim.geom.GeomHeuristic;
+import com.github.rinde.rinsim.geom.GeomHeuristics;
+import com.github.rinde.rinsim.geom.Graph;
+import com.github.rinde.rinsim.geom.Point;
+import com.google.auto.value.AutoValue;
+
+/**
+ * A {@link GraphRoadModelImpl} on a static graph that answers its shortest
+ * path queries using a {@link ContractionHierarchy} of that graph. This
+ * applies to {@link #getShortestPathTo(Point, Point)} and to all path
+ * computations based on the (default) euclidean heuristic, which includes
+ * {@link #moveTo(MovingRoadUser, Point, com.github.rinde.rinsim.core.model.time.TimeLapse)}.
+ * Other heuristics fall back to the regular search. The graph must not be
+ * modified.
+ * @author Rinde van Lon
+ */
+public class ContractedGraphRoadModel extends GraphRoadModelImpl {
+  private final ContractionHierarchy hierarchy;
+
+  ContractedGraphRoadModel(Graph<?> g, ContractionHierarchy ch,
+      RoadModelBuilders.AbstractGraphRMB<?, ?, ?> b) {
+    super(g, b);
+    hierarchy = ch;
+  }
+
+  /**
+   * @return The contraction hierarchy that is used for routing.
+   */
+  public ContractionHierarchy getHierarchy() {
+    return hierarchy;
+  }
+
+  @Override
+  protected List<Point> doGetShortestPathTo(Point from, Point to) {
+    return hierarchy.shortestPath(from, to);
+  }
+
+  @Override
+  public RoadPath getPathTo(Point from, Point to, Unit<Duration> timeUnit,
+      Measure<Double, Velocity> speed, GeomHeuristic heuristic) {
+    if (heuristic != GeomHeuristics.euclidean()) {
+      return super.getPathTo(from, to, timeUnit, speed, heuristic);
+    }
+    final List<Point> path = hierarchy.shortestPath(from, to);
+    final Graph<?> g = getGraph();
+    double cost = 0d;
+    double travelTime = 0d;
+    for (int i = 1; i < path.size(); i++) {
+      final Point a = path.get(i - 1);
+      final Point b = path.get(i);
+      cost += heuristic.calculateCost(g, a, b);
+      travelTime += heuristic.calculateTravelTime(g, a, b, getDistanceUnit(),
+        speed, timeUnit);
+    }
+    return RoadPath.create(path, cost, travelTime);
+  }
+
+  /**
+   * Create a builder for a {@link ContractedGraphRoadModel}. The distance unit
+   * is kilometers and the speed unit kilometers per hour, like the defaults of
+   * {@link RoadModelBuilders#staticGraph(Graph)}.
+   * @param graph The graph.
+   * @param hierarchy The contraction hierarchy of the graph, see
+   *          {@link ContractionHierarchy#loadOrBuild(Graph, java.io.File)}.
+   * @return A new builder.
+   */
+  public static Builder builder(Graph<?> graph,
+      ContractionHierarchy hierarchy) {
+    checkArgument(
+      hierarchy.getNumberOfNodes() == graph.getNumberOfNodes(),
+      "The hierarchy (%s nodes) was not built for this graph (%s nodes).",
+      hierarchy.getNumberOfNodes(), graph.getNumberOfNodes());
+    return new AutoValue_ContractedGraphRoadModel_Builder(graph, hierarchy);
+  }
+
+  /**
+   * Builder for {@link ContractedGraphRoadModel}.
+   * @author Rinde van Lon
+   */
+  @AutoValue
+  public abstract static class Builder
+      extends AbstractModelBuilder<ContractedGraphRoadModel, RoadUser> {
+    private static final long serialVersionUID = 3524961548226305473L;
+
+    Builder() {
+      setProvidingTypes(RoadModel.class, GraphRoadModel.class);
+    }
+
+    abstract Graph<?> getGraph();
+
+    abstract ContractionHierarchy getHierarchy();
+
+    @Override
+    public ContractedGraphRoadModel build(
+        DependencyProvider dependencyProvider) {
+      return new ContractedGraphRoadModel(getGraph(), getHierarchy(),
+        RoadModelBuilders.staticGraph(getGraph()));
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * The arrival times of new customers, in increasing order. Any number of
+ * customers can arrive in the same tick, customers that arrive in a tick are
+ * registered at the end of that tick, both by {@link TaxiExample2} and by the
+ * {@link EventDrivenSimulation}. Arrival times are drawn lazily from the
+ * random generator of the simulation, which is also used to draw the
+ * positions of the customers, so the order of the calls determines the
+ * outcome.
+ * <p>
+ * Without {@link SimulationConfig#arrivalRates()} one customer arrives per
+ * tick with {@link SimulationConfig#newCustomerProbability()}, so demand
+ * depends on the tick length. With arrival rates the arrivals are a
+ * non-homogeneous Poisson process that is independent of the tick length: the
+ * exponential inter-arrival times of a process with the highest rate of the
+ * profile are thinned by accepting an arrival with the ratio of the rate at
+ * its time to the highest rate (Lewis and Shedler).
+ * @author Rinde van Lon
+ */
+abstract class ArrivalProcess {
+  /**
+   * The time of the next arrival when no customers arrive anymore.
+   */
+  static final long NONE = Long.MAX_VALUE;
+  private static final long UNKNOWN = -1L;
+
+  private long next;
+
+  ArrivalProcess() {
+    next = UNKNOWN;
+  }
+
+  /**
+   * @param config The configuration of the run.
+   * @param rng The random generator of the simulation.
+   * @return The arrival process of the configuration, arrivals end at its end
+   *         time.
+   */
+  static ArrivalProcess create(SimulationConfig config, RandomGenerator rng) {
+    final ArrivalRates rates = config.arrivalRates();
+    if (rates == null) {
+      return new PerTick(config.newCustomerProbability(), config.tickLength(),
+        config.endTime(), rng);
+    }
+    return new Thinning(rates, config.endTime(), rng);
+  }
+
+  /**
+   * @return The time of the next arrival, or {@link #NONE}. It is drawn if it
+   *         was not drawn yet.
+   */
+  long peek() {
+    if (next == UNKNOWN) {
+      next = draw();
+    }
+    return next;
+  }
+
+  /**
+   * @return The time of the next arrival, or {@link #NONE}, the arrival after
+   *         it is drawn by the next call to {@link #peek()}.
+   */
+  long poll() {
+    final long time = peek();
+    if (time != NONE) {
+      next = UNKNOWN;
+    }
+    return time;
+  }
+
+  abstract long draw();
+
+  // one trial per tick, as long as the tick does not start after the end time
+  static final class PerTick extends ArrivalProcess {
+    private final double probability;
+    private final long tickLength;
+    private final long endTime;
+    private final RandomGenerator rng;
+    private long tick;
+
+    PerTick(double p, long length, long end, RandomGenerator random) {
+      probability = p;
+      tickLength = length;
+      endTime = end;
+      rng = checkNotNull(random);
+    }
+
+    @Override
+    long draw() {
+      while (tick * tickLength <= endTime) {
+        final long start = tick++ * tickLength;
+        if (rng.nextDouble() < probability) {
+          return start;
+        }
+      }
+      return NONE;
+    }
+  }
+
+  static final class Thinning extends ArrivalProcess {
+    private final ArrivalRates rates;
+    private final double maxRate;
+    private final long endTime;
+    private final RandomGenerator rng;
+    // the time of the last candidate arrival
+    private double time;
+
+    Thinning(ArrivalRates arrivalRates, long end, RandomGenerator random) {
+      rates = arrivalRates;
+      maxRate = arrivalRates.maxRate();
+      checkArgument(end > 0, "The end time must be positive.");
+      endTime = end;
+      rng = checkNotNull(random);
+    }
+
+    @Override
+    long draw() {
+      if (maxRate == 0) {
+        return NONE;
+      }
+      while (time < endTime) {
+        time -= Math.log(1 - rng.nextDouble()) / maxRate;
+        if (time < endTime
+          && rng.nextDouble() * maxRate < rates.rate((long) time)) {
+          return (long) time;
+        }
+      }
+      return NONE;
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+/**
+ * A time-of-day profile of the arrival rate of customers: a rate (customers
+ * per hour) for each hour, the profile repeats itself after its last hour, so
+ * 24 rates describe a day and 168 rates a week. See {@link ArrivalProcess}.
+ * @author Rinde van Lon
+ */
+@AutoValue
+abstract class ArrivalRates {
+
+  /**
+   * @return The number of customers per hour for consecutive hours, starting
+   *         at time 0.
+   */
+  abstract ImmutableList<Double> hourlyRates();
+
+  /**
+   * @param time A time in ms.
+   * @return The arrival rate in customers per ms at the specified time.
+   */
+  double rate(long time) {
+    final List<Double> rates = hourlyRates();
+    return rates.get((int) (time / SimulationConfig.HOUR % rates.size()))
+      / SimulationConfig.HOUR;
+  }
+
+  /**
+   * @return The highest arrival rate of the profile in customers per ms.
+   */
+  double maxRate() {
+    return Collections.max(hourlyRates()) / SimulationConfig.HOUR;
+  }
+
+  /**
+   * @param rates The number of customers per hour for consecutive hours.
+   * @return The profile.
+   */
+  static ArrivalRates create(List<Double> rates) {
+    checkArgument(!rates.isEmpty(), "At least one rate is required.");
+    for (final double r : rates) {
+      checkArgument(r >= 0 && !Double.isInfinite(r),
+        "Rates must be finite and non-negative, found %s.", r);
+    }
+    return new AutoValue_ArrivalRates(ImmutableList.copyOf(rates));
+  }
+
+  /**
+   * @param spec The customers per hour, a single rate or the rates of
+   *          consecutive hours separated by commas, e.g. "20,10,10,60", or the
+   *          path of a file with one rate per line (blank lines and lines
+   *          starting with # are ignored).
+   * @return The profile.
+   * @throws IllegalArgumentException if the profile is not valid.
+   */
+  static ArrivalRates parse(String spec) {
+    try {
+      return create(parseRates(spec.split(",")));
+    } catch (final NumberFormatException e) {
+      // not a list of rates, so it is a file
+    }
+    final List<String> lines;
+    try {
+      lines = Files.readLines(new File(spec), StandardCharsets.UTF_8);
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+    final List<String> rates = new ArrayList<String>();
+    for (final String line : lines) {
+      final String l = line.trim();
+      if (!l.isEmpty() && !l.startsWith("#")) {
+        rates.add(l);
+      }
+    }
+    return create(parseRates(rates.toArray(new String[rates.size()])));
+  }
+
+  private static List<Double> parseRates(String[] values) {
+    final List<Double> rates = new ArrayList<Double>();
+    for (final String v : values) {
+      rates.add(Double.parseDouble(v.trim()));
+    }
+    return rates;
+  }
+}
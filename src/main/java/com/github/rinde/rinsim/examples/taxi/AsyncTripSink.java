@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.Nullable;
+
+import com.github.rinde.rinsim.geom.Point;
+
+/**
+ * A {@link TripSink} that decouples the simulation from writing its output.
+ * The simulation thread copies each trip into a slot of a bounded ring buffer
+ * (parallel primitive arrays, nothing is allocated per trip) and a background
+ * writer thread passes the trips in batches to the delegate sink, which does
+ * the encoding and IO. The simulation thread only waits when the buffer is
+ * full. Watermarks are passed through the buffer as well, so the delegate
+ * receives them in the same order relative to the trips. {@link #close()}
+ * waits until all trips are written and then closes the delegate.
+ * <p>
+ * There must be a single producer, the thread that runs the simulation.
+ * @author Rinde van Lon
+ */
+final class AsyncTripSink implements TripSink {
+  static final int DEFAULT_CAPACITY = 1 << 14;
+  // how long the writer sleeps when the buffer is empty
+  static final long IDLE_NANOS = 1000000L;
+  // how long the producer sleeps when the buffer is full
+  static final long FULL_NANOS = 10000L;
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private final TripSink delegate;
+  private final int mask;
+  private final long[] tripIds;
+  private final long[] taxiIds;
+  private final long[] pickupTimes;
+  private final Point[] pickups;
+  private final long[] deliveryTimes;
+  private final Point[] deliveries;
+  private final double[] distances;
+  // number of trips published by the producer
+  private final AtomicLong tail;
+  // number of trips consumed by the writer
+  private final AtomicLong head;
+  private final Thread writer;
+  private volatile boolean closed;
+  // producer only, avoids publishing the same watermark every tick
+  private long lastWatermark = Long.MIN_VALUE;
+  @Nullable
+  private volatile Throwable failure;
+
+  /**
+   * Creates a sink and starts its writer thread.
+   * @param sink The sink that encodes and writes the trips, it is only called
+   *          from the writer thread.
+   * @param capacity The capacity of the ring buffer, must be a power of two.
+   */
+  AsyncTripSink(TripSink sink, int capacity) {
+    checkArgument(capacity > 0 && Integer.bitCount(capacity) == 1,
+      "The capacity must be a power of two, found %s.", capacity);
+    delegate = checkNotNull(sink);
+    mask = capacity - 1;
+    tripIds = new long[capacity];
+    taxiIds = new long[capacity];
+    pickupTimes = new long[capacity];
+    pickups = new Point[capacity];
+    deliveryTimes = new long[capacity];
+    deliveries = new Point[capacity];
+    distances = new double[capacity];
+    tail = new AtomicLong();
+    head = new AtomicLong();
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        drain();
+      }
+    }, "trip-writer-" + THREAD_COUNT.incrementAndGet());
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Creates a sink with the default capacity.
+   * @param sink The sink that encodes and writes the trips.
+   * @return The sink.
+   */
+  static AsyncTripSink create(TripSink sink) {
+    return new AsyncTripSink(sink, DEFAULT_CAPACITY);
+  }
+
+  @Override
+  public void trip(long tripId, long taxiId, long pickupTime, Point pickup,
+      long deliveryTime, Point delivery, double distance) {
+    final int i = claim();
+    tripIds[i] = tripId;
+    taxiIds[i] = taxiId;
+    pickupTimes[i] = pickupTime;
+    pickups[i] = checkNotNull(pickup);
+    deliveryTimes[i] = deliveryTime;
+    deliveries[i] = delivery;
+    distances[i] = distance;
+    publish();
+  }
+
+  // a slot without pickup is a watermark, stored as its pickup time
+  @Override
+  public void watermark(long time) {
+    if (time == lastWatermark) {
+      return;
+    }
+    lastWatermark = time;
+    final int i = claim();
+    pickupTimes[i] = time;
+    pickups[i] = null;
+    publish();
+  }
+
+  // waits until the next slot is free
+  private int claim() {
+    checkState(!closed, "The sink is closed.");
+    checkFailure();
+    final long t = tail.get();
+    while (t - head.get() > mask) {
+      checkFailure();
+      // the writer may be sleeping on an empty buffer
+      LockSupport.unpark(writer);
+      LockSupport.parkNanos(FULL_NANOS);
+    }
+    return (int) t & mask;
+  }
+
+  // publishes the claimed slot to the writer
+  private void publish() {
+    tail.lazySet(tail.get() + 1);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    LockSupport.unpark(writer);
+    boolean interrupted = false;
+    while (writer.isAlive()) {
+      try {
+        writer.join();
+      } catch (final InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      checkFailure();
+    } finally {
+      delegate.close();
+    }
+  }
+
+  // writer thread: consumes all published slots as one batch, stops when the
+  // sink is closed and empty
+  void drain() {
+    try {
+      long h = head.get();
+      while (true) {
+        final boolean last = closed;
+        final long t = tail.get();
+        if (h == t) {
+          if (last) {
+            return;
+          }
+          LockSupport.parkNanos(IDLE_NANOS);
+          continue;
+        }
+        for (; h < t; h++) {
+          final int i = (int) h & mask;
+          if (pickups[i] == null) {
+            delegate.watermark(pickupTimes[i]);
+            continue;
+          }
+          delegate.trip(tripIds[i], taxiIds[i], pickupTimes[i], pickups[i],
+            deliveryTimes[i], deliveries[i], distances[i]);
+          pickups[i] = null;
+          deliveries[i] = null;
+        }
+        head.lazySet(h);
+      }
+    } catch (final RuntimeException e) {
+      failure = e;
+    } catch (final Error e) {
+      failure = e;
+      throw e;
+    }
+  }
+
+  private void checkFailure() {
+    final Throwable t = failure;
+    if (t != null) {
+      throw new IllegalStateException("Writing trips failed.", t);
+    }
+  }
+}
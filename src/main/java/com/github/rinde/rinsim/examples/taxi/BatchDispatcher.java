@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+import static java.util.Collections.unmodifiableSet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+
+import com.github.rinde.rinsim.core.model.pdp.Parcel;
+import com.github.rinde.rinsim.core.model.time.TickListener;
+import com.github.rinde.rinsim.core.model.time.TimeLapse;
+import com.github.rinde.rinsim.geom.Point;
+
+/**
+ * Assigns customers to idle taxis centrally, once per batch window. Taxis that
+ * ask for a customer are collected, at the start of the next batch all idle
+ * taxis are matched with the unassigned customers by a greedy bipartite
+ * matching: the candidates of each taxi are its
+ * {@link #CANDIDATES_PER_TAXI} nearest unassigned customers (see
+ * {@link GridIndex}) and the closest pairs are matched first, which is
+ * repeated until every taxi or every customer is matched. A match is an
+ * exclusive claim, the customer is removed from the index and no other taxi
+ * drives to it.
+ * <p>
+ * The assignment latency (simulated time from the arrival of a customer until
+ * it is claimed) and the wall clock time of each matching are recorded, see
+ * {@link #toString()}. The dispatcher must be added as tick listener before
+ * the taxis, so that a batch is matched before the taxis tick.
+ * @author Rinde van Lon
+ */
+final class BatchDispatcher implements Dispatcher, TickListener {
+  static final int CANDIDATES_PER_TAXI = 4;
+
+  private final GridIndex<Parcel> unassigned;
+  private final long window;
+  // arrival time of each unassigned customer
+  private final Map<Parcel, Long> arrivals;
+  // position of each idle taxi, in the order in which they became idle
+  private final Map<Long, Point> idle;
+  private final Map<Long, Parcel> claims;
+  private final SummaryStatistics latency;
+  private final SummaryStatistics matchingTime;
+  private long nextBatch;
+
+  /**
+   * @param unassignedCustomers An empty index of the customers that wait to be
+   *          assigned.
+   * @param batchWindow The time between two batches in ms, a batch is matched
+   *          at most once per tick.
+   */
+  BatchDispatcher(GridIndex<Parcel> unassignedCustomers, long batchWindow) {
+    checkArgument(batchWindow > 0, "The batch window must be positive.");
+    unassigned = checkNotNull(unassignedCustomers);
+    window = batchWindow;
+    arrivals = newLinkedHashMap();
+    idle = newLinkedHashMap();
+    claims = newLinkedHashMap();
+    latency = new SummaryStatistics();
+    matchingTime = new SummaryStatistics();
+  }
+
+  @Override
+  public void customerArrived(Parcel customer, Point position, long time) {
+    unassigned.add(customer, position);
+    arrivals.put(customer, time);
+  }
+
+  @Override
+  @Nullable
+  public Parcel assign(long taxi, Point position) {
+    final Parcel claimed = claims.remove(taxi);
+    if (claimed == null) {
+      idle.put(taxi, position);
+    }
+    return claimed;
+  }
+
+  @Override
+  public void pickedUp(Parcel customer) {
+    // only claimed customers are picked up, they are not in the index anymore
+    if (unassigned.remove(customer)) {
+      arrivals.remove(customer);
+    }
+  }
+
+  @Override
+  public void tick(TimeLapse timeLapse) {
+    advance(timeLapse.getStartTime());
+  }
+
+  /**
+   * Matches a batch if one is due.
+   * @param time The start time of the current tick.
+   */
+  void advance(long time) {
+    if (time >= nextBatch) {
+      final long start = System.nanoTime();
+      match(time);
+      matchingTime.addValue(System.nanoTime() - start);
+      nextBatch = time + window;
+    }
+  }
+
+  /**
+   * @return The time from which the next batch is due, it is matched at the
+   *         start of the first tick that does not start earlier.
+   */
+  long nextBatch() {
+    return nextBatch;
+  }
+
+  /**
+   * @return The ids of the taxis that are matched but did not ask for their
+   *         customer yet.
+   */
+  Set<Long> claimedTaxis() {
+    return unmodifiableSet(claims.keySet());
+  }
+
+  @Override
+  public void afterTick(TimeLapse timeLapse) {}
+
+  // every round matches at least the closest candidate pair
+  private void match(long now) {
+    while (!idle.isEmpty() && unassigned.size() > 0) {
+      final List<Candidate> candidates = new ArrayList<Candidate>();
+      for (final Map.Entry<Long, Point> taxi : idle.entrySet()) {
+        for (final Parcel c : unassigned.nearest(taxi.getValue(),
+          CANDIDATES_PER_TAXI)) {
+          candidates.add(new Candidate(taxi.getKey(), c,
+            Point.distance(taxi.getValue(), c.getPickupLocation())));
+        }
+      }
+      // stable, ties are matched in the order in which taxis became idle
+      Collections.sort(candidates, Candidate.BY_DISTANCE);
+      for (final Candidate c : candidates) {
+        if (idle.containsKey(c.taxi) && unassigned.contains(c.customer)) {
+          idle.remove(c.taxi);
+          unassigned.remove(c.customer);
+          claims.put(c.taxi, c.customer);
+          latency.addValue(now - arrivals.remove(c.customer));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The simulated time (ms) between the arrival of a customer and its
+   *         assignment to a taxi, of all assigned customers.
+   */
+  SummaryStatistics assignmentLatency() {
+    return latency;
+  }
+
+  /**
+   * @return The wall clock time (ns) of the matching of each batch.
+   */
+  SummaryStatistics matchingTime() {
+    return matchingTime;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("BatchDispatcher{batches=%d, assigned=%d, "
+      + "meanLatency=%.0f ms, maxLatency=%.0f ms, meanMatching=%.3f ms, "
+      + "maxMatching=%.3f ms, unassigned=%d, idle=%d}",
+      matchingTime.getN(), latency.getN(), latency.getMean(),
+      latency.getMax(), matchingTime.getMean() / 1e6,
+      matchingTime.getMax() / 1e6, unassigned.size(), idle.size());
+  }
+
+  static final class Candidate {
+    static final Comparator<Candidate> BY_DISTANCE =
+      new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+          return Double.compare(a.distance, b.distance);
+        }
+      };
+
+    final Long taxi;
+    final Parcel customer;
+    final double distance;
+
+    Candidate(Long t, Parcel c, double dist) {
+      taxi = t;
+      customer = c;
+      distance = dist;
+    }
+  }
+}
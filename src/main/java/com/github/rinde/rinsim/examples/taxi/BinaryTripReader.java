@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Reads trip files in the columnar binary format written by the
+ * <code>binary</code> trip format of {@link TaxiExample2} (see
+ * {@link BinaryTripSink} for the layout). Columns that are not requested are
+ * skipped without decoding them.
+ * @author Rinde van Lon
+ */
+public final class BinaryTripReader {
+  static final int BUFFER_SIZE = 1 << 20;
+
+  private BinaryTripReader() {}
+
+  /**
+   * The columns of a trip file, in the order in which they are stored.
+   */
+  public enum Column {
+    /**
+     * The trip id.
+     */
+    TRIP_ID,
+    /**
+     * The id of the taxi.
+     */
+    TAXI_ID,
+    /**
+     * The time of the pickup in ms.
+     */
+    PICKUP_TIME,
+    /**
+     * The latitude (y) of the pickup.
+     */
+    PICKUP_LAT,
+    /**
+     * The longitude (x) of the pickup.
+     */
+    PICKUP_LON,
+    /**
+     * The time of the delivery in ms.
+     */
+    DELIVERY_TIME,
+    /**
+     * The latitude (y) of the delivery.
+     */
+    DELIVERY_LAT,
+    /**
+     * The longitude (x) of the delivery.
+     */
+    DELIVERY_LON,
+    /**
+     * The shortest path distance from pickup to delivery in km.
+     */
+    DISTANCE
+  }
+
+  /**
+   * Reads all columns of a trip file.
+   * @param file The file.
+   * @return The trips.
+   * @throws IOException if the file can not be read or is not a trip file.
+   */
+  public static TripTable read(File file) throws IOException {
+    return read(file, EnumSet.allOf(Column.class));
+  }
+
+  /**
+   * Reads some columns of a trip file.
+   * @param file The file.
+   * @param columns The columns to read, the other columns are absent in the
+   *          result.
+   * @return The trips.
+   * @throws IOException if the file can not be read or is not a trip file.
+   */
+  public static TripTable read(File file, Set<Column> columns)
+      throws IOException {
+    final InputStream in = new FileInputStream(file);
+    try {
+      return read(in, columns);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Reads some columns of trips from a stream.
+   * @param stream The stream, it is not closed.
+   * @param columns The columns to read.
+   * @return The trips.
+   * @throws IOException if the stream can not be read or does not contain a
+   *           trip file.
+   */
+  public static TripTable read(InputStream stream, Set<Column> columns)
+      throws IOException {
+    final DataInputStream in = new DataInputStream(
+      new BufferedInputStream(stream, BUFFER_SIZE));
+    if (in.readInt() != BinaryTripSink.MAGIC) {
+      throw new IOException("Not a trip file.");
+    }
+    final int version = in.readInt();
+    if (version != BinaryTripSink.FORMAT_VERSION) {
+      throw new IOException("Unsupported format version " + version + ".");
+    }
+    final int coordinateDecimals = in.readInt();
+    final int distanceDecimals = in.readInt();
+    if (coordinateDecimals < 0 || coordinateDecimals > 18
+      || distanceDecimals < 0 || distanceDecimals > 18) {
+      throw new IOException("Invalid number of decimals.");
+    }
+
+    final Column[] all = Column.values();
+    final long[][] values = new long[all.length][];
+    for (final Column c : columns) {
+      values[c.ordinal()] = new long[BinaryTripSink.ROW_GROUP_SIZE];
+    }
+    byte[] bytes = new byte[BinaryTripSink.ROW_GROUP_SIZE * 4];
+    int size = 0;
+    try {
+      int rows;
+      while ((rows = in.readInt()) != 0) {
+        if (rows < 0) {
+          throw new IOException("Invalid row group size " + rows + ".");
+        }
+        for (int c = 0; c < all.length; c++) {
+          final int length = in.readInt();
+          if (length < rows || length > rows * 10L) {
+            throw new IOException("Invalid column size " + length + ".");
+          }
+          if (values[c] == null) {
+            skipFully(in, length);
+            continue;
+          }
+          if (bytes.length < length) {
+            bytes = new byte[length];
+          }
+          in.readFully(bytes, 0, length);
+          if (values[c].length < size + rows) {
+            values[c] = Arrays.copyOf(values[c],
+              Math.max(size + rows, values[c].length * 2));
+          }
+          decode(bytes, length, values[c], size, rows);
+        }
+        size += rows;
+      }
+    } catch (final EOFException e) {
+      throw new IOException("Truncated trip file.", e);
+    }
+    for (int c = 0; c < all.length; c++) {
+      if (values[c] != null) {
+        values[c] = Arrays.copyOf(values[c], size);
+      }
+    }
+    return new TripTable(size, values, coordinateDecimals, distanceDecimals);
+  }
+
+  // decodes rows delta encoded zigzag varints
+  static void decode(byte[] bytes, int length, long[] target, int offset,
+      int rows) throws IOException {
+    int p = 0;
+    long previous = 0;
+    for (int i = 0; i < rows; i++) {
+      long v = 0;
+      int shift = 0;
+      byte b;
+      do {
+        if (p == length || shift > 63) {
+          throw new IOException("Corrupt column.");
+        }
+        b = bytes[p++];
+        v |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      previous += (v >>> 1) ^ -(v & 1);
+      target[offset + i] = previous;
+    }
+    if (p != length) {
+      throw new IOException("Corrupt column.");
+    }
+  }
+
+  static void skipFully(DataInputStream in, int length) throws IOException {
+    int remaining = length;
+    while (remaining > 0) {
+      final int skipped = in.skipBytes(remaining);
+      if (skipped <= 0) {
+        throw new EOFException();
+      }
+      remaining -= skipped;
+    }
+  }
+
+  /**
+   * Trips that were read from a trip file, stored per column.
+   */
+  public static final class TripTable {
+    private final int size;
+    private final long[][] values;
+    private final double coordinateScale;
+    private final double distanceScale;
+
+    TripTable(int rows, long[][] columns, int coordinateDecimals,
+        int distanceDecimals) {
+      size = rows;
+      values = columns;
+      coordinateScale = Math.pow(10, coordinateDecimals);
+      distanceScale = Math.pow(10, distanceDecimals);
+    }
+
+    /**
+     * @return The number of trips.
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * @param column A column.
+     * @return <code>true</code> if the column was read.
+     */
+    public boolean has(Column column) {
+      return values[column.ordinal()] != null;
+    }
+
+    /**
+     * @param i The index of the trip.
+     * @return The trip id.
+     */
+    public long tripId(int i) {
+      return column(Column.TRIP_ID)[i];
+    }
+
+    /**
+     * @param i The index of the trip.
+     * @return The taxi id.
+     */
+    public long taxiId(int i) {
+      return column(Column.TAXI_ID)[i];
+    }
+
+    /**
+     * @param i The index of the trip.
+     * @return The pickup time in ms.
+     */
+    public long pickupTime(int i) {
+      return column(Column.PICKUP_TIME)[i];
+    }
+
+    /**
+     * @param i The index of the trip.
+     * @return The delivery time in ms.
+     */
+    public long deliveryTime(int i) {
+      return column(Column.DELIVERY_TIME)[i];
+    }
+
+    /**
+     * @param column {@link Column#PICKUP_LAT}, {@link Column#PICKUP_LON},
+     *          {@link Column#DELIVERY_LAT} or {@link Column#DELIVERY_LON}.
+     * @param i The index of the trip.
+     * @return The coordinate.
+     */
+    public double coordinate(Column column, int i) {
+      checkArgument(column == Column.PICKUP_LAT
+        || column == Column.PICKUP_LON || column == Column.DELIVERY_LAT
+        || column == Column.DELIVERY_LON, "%s is not a coordinate.", column);
+      return column(column)[i] / coordinateScale;
+    }
+
+    /**
+     * @param i The index of the trip.
+     * @return The distance in km.
+     */
+    public double distance(int i) {
+      return column(Column.DISTANCE)[i] / distanceScale;
+    }
+
+    /**
+     * Direct access to the stored values, timestamps and ids as is,
+     * coordinates and distances as fixed-point values.
+     * @param column The column.
+     * @return The values of the column, the array must not be modified.
+     */
+    public long[] column(Column column) {
+      final long[] v = values[column.ordinal()];
+      checkArgument(v != null, "Column %s was not read.", column);
+      return v;
+    }
+  }
+}
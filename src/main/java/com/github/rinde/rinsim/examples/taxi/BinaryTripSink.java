@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import com.github.rinde.rinsim.geom.Point;
+
+/**
+ * Writes trips in a compact columnar binary format. Trips are collected in row
+ * groups of at most {@link #ROW_GROUP_SIZE} trips. Each column of a group is
+ * written as a separate block, so a reader can skip the columns it does not
+ * need. Ids, timestamps, coordinates and distances are stored as variable
+ * length integers. Ids and timestamps are delta encoded, coordinates and
+ * distances are stored as fixed-point values, delta encoded as well.
+ * <p>
+ * Layout, all fixed size values big-endian:
+ * <ul>
+ * <li>header: magic number, format version, number of decimals of
+ * coordinates, number of decimals of distances (ints);</li>
+ * <li>row groups: number of rows <code>n &gt; 0</code> (int), followed by the
+ * columns (see {@link BinaryTripReader.Column}) in order, each as its size in
+ * bytes (int) and <code>n</code> zigzag encoded LEB128 variable length
+ * integers, the difference with the previous value in the group (the first
+ * value is relative to 0);</li>
+ * <li>the end of the file: a row group of 0 rows.</li>
+ * </ul>
+ * The file is read with {@link BinaryTripReader}.
+ * @author Rinde van Lon
+ */
+final class BinaryTripSink implements TripSink {
+  /**
+   * The extension of trip files in this format.
+   */
+  static final String FILE_EXTENSION = ".trips";
+  static final int MAGIC = 0x54524950;
+  static final int FORMAT_VERSION = 1;
+  static final int ROW_GROUP_SIZE = 1 << 16;
+  static final int COORDINATE_DECIMALS = TripRecordEncoder.COORDINATE_DECIMALS;
+  static final int DISTANCE_DECIMALS = TripRecordEncoder.DISTANCE_DECIMALS;
+
+  private final DataOutputStream out;
+  private final double coordinateScale;
+  private final double distanceScale;
+  // one array per column, see BinaryTripReader.Column
+  private final long[][] columns;
+  private int rows;
+  // encoded column, reused for every column of every group
+  private byte[] bytes;
+
+  /**
+   * Creates a sink and writes the header.
+   * @param output The stream to write to, it is closed by {@link #close()}.
+   * @throws IOException if the header can not be written.
+   */
+  BinaryTripSink(OutputStream output) throws IOException {
+    out = new DataOutputStream(checkNotNull(output));
+    coordinateScale = Math.pow(10, COORDINATE_DECIMALS);
+    distanceScale = Math.pow(10, DISTANCE_DECIMALS);
+    columns = new long[BinaryTripReader.Column.values().length][
+      ROW_GROUP_SIZE];
+    bytes = new byte[ROW_GROUP_SIZE * 4];
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeInt(COORDINATE_DECIMALS);
+    out.writeInt(DISTANCE_DECIMALS);
+  }
+
+  // columns in the order of BinaryTripReader.Column
+  @Override
+  public void trip(long tripId, long taxiId, long pickupTime, Point pickup,
+      long deliveryTime, Point delivery, double distance) {
+    columns[0][rows] = tripId;
+    columns[1][rows] = taxiId;
+    columns[2][rows] = pickupTime;
+    columns[3][rows] = Math.round(pickup.y * coordinateScale);
+    columns[4][rows] = Math.round(pickup.x * coordinateScale);
+    columns[5][rows] = deliveryTime;
+    columns[6][rows] = Math.round(delivery.y * coordinateScale);
+    columns[7][rows] = Math.round(delivery.x * coordinateScale);
+    columns[8][rows] = Math.round(distance * distanceScale);
+    rows++;
+    if (rows == ROW_GROUP_SIZE) {
+      try {
+        writeRowGroup();
+      } catch (final IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  @Override
+  public void watermark(long time) {}
+
+  private void writeRowGroup() throws IOException {
+    out.writeInt(rows);
+    for (final long[] column : columns) {
+      int size = 0;
+      long previous = 0;
+      for (int i = 0; i < rows; i++) {
+        if (size > bytes.length - 10) {
+          bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        size = putVarLong(bytes, size, zigzag(column[i] - previous));
+        previous = column[i];
+      }
+      out.writeInt(size);
+      out.write(bytes, 0, size);
+    }
+    rows = 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (rows > 0) {
+        writeRowGroup();
+      }
+      out.writeInt(0);
+    } finally {
+      out.close();
+    }
+  }
+
+  static long zigzag(long v) {
+    return (v << 1) ^ (v >> 63);
+  }
+
+  // LEB128, 7 bits per byte, least significant group first
+  static int putVarLong(byte[] buffer, int offset, long value) {
+    int p = offset;
+    long v = value;
+    while ((v & ~0x7FL) != 0) {
+      buffer[p++] = (byte) ((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    buffer[p++] = (byte) v;
+    return p;
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import com.github.rinde.rinsim.geom.Point;
+
+/**
+ * Writes trips as CSV lines with a header, latitude (y) before longitude (x):
+ * <code>tripId, taxiId, PU_timeStamp, PU_lat, PU_long, DO_timeStamp, DO_lat,
+ * DO_long, distance(km)</code>. Records are encoded by a
+ * {@link TripRecordEncoder} into a large byte buffer that is only written to
+ * the underlying stream when it is full or when the sink is closed.
+ * @author Rinde van Lon
+ */
+final class CsvTripSink implements TripSink {
+  static final String HEADER = "tripId, taxiId, PU_timeStamp, PU_lat, "
+    + "PU_long, DO_timeStamp, DO_lat, DO_long, distance(km)";
+  static final int BUFFER_SIZE = 1 << 20;
+
+  private final OutputStream out;
+  private final TripRecordEncoder encoder;
+  private final byte[] buffer;
+  private int position;
+
+  /**
+   * Creates a sink and writes the header.
+   * @param output The stream to write to, it is closed by {@link #close()}.
+   * @param recordEncoder The encoder of the records.
+   */
+  CsvTripSink(OutputStream output, TripRecordEncoder recordEncoder) {
+    out = checkNotNull(output);
+    encoder = checkNotNull(recordEncoder);
+    buffer = new byte[BUFFER_SIZE];
+    final byte[] header = (HEADER + System.getProperty("line.separator"))
+      .getBytes(Charset.forName("US-ASCII"));
+    System.arraycopy(header, 0, buffer, 0, header.length);
+    position = header.length;
+  }
+
+  /**
+   * Opens a sink that writes to a file.
+   * @param file The file, it is overwritten if it exists.
+   * @return The sink.
+   * @throws IOException if the file can not be created.
+   */
+  static CsvTripSink open(File file) throws IOException {
+    return new CsvTripSink(new FileOutputStream(file),
+      TripRecordEncoder.create());
+  }
+
+  @Override
+  public void trip(long tripId, long taxiId, long pickupTime, Point pickup,
+      long deliveryTime, Point delivery, double distance) {
+    if (position > buffer.length - TripRecordEncoder.MAX_RECORD_BYTES) {
+      flush();
+    }
+    position = encoder.encode(buffer, position, tripId, taxiId, pickupTime,
+      pickup, deliveryTime, delivery, distance);
+  }
+
+  @Override
+  public void watermark(long time) {}
+
+  private void flush() {
+    try {
+      out.write(buffer, 0, position);
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+    position = 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      out.write(buffer, 0, position);
+      position = 0;
+    } finally {
+      out.close();
+    }
+  }
+}
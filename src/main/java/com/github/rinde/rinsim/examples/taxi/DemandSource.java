@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import com.github.rinde.rinsim.examples.taxi.TaxiExample2.Customer;
+
+/**
+ * The customers that arrive during a run, in order of arrival. Both
+ * {@link TaxiExample2} and the {@link EventDrivenSimulation} register the
+ * customers that arrive in a tick at the end of that tick. All methods are
+ * called on the simulation thread.
+ * @author Rinde van Lon
+ */
+interface DemandSource {
+
+  /**
+   * @return The arrival time of the next customer, or
+   *         {@link ArrivalProcess#NONE} if no more customers arrive.
+   */
+  long nextArrival();
+
+  /**
+   * @return The customer that arrives at {@link #nextArrival()}, the next
+   *         customer becomes the next one to arrive.
+   * @throws IllegalStateException if no more customers arrive.
+   */
+  Customer next();
+
+  /**
+   * Releases the resources of the source, it can not be used afterwards.
+   */
+  void close();
+}
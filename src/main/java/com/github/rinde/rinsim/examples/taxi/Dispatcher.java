@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import javax.annotation.Nullable;
+
+import com.github.rinde.rinsim.core.model.pdp.Parcel;
+import com.github.rinde.rinsim.geom.Point;
+
+/**
+ * Decides which waiting customer an idle {@link Taxi} serves. All methods are
+ * called on the simulation thread.
+ * @author Rinde van Lon
+ */
+interface Dispatcher {
+
+  /**
+   * Is called when a customer is registered and waits to be picked up.
+   * @param customer The customer.
+   * @param position The pickup position of the customer.
+   * @param time The arrival time of the customer, see {@link ArrivalProcess}.
+   */
+  void customerArrived(Parcel customer, Point position, long time);
+
+  /**
+   * Is called by a taxi that has no customer, every tick until it gets one.
+   * The {@link EventDrivenSimulation} only calls it in the ticks in which the
+   * answer can differ from the previous one.
+   * @param taxi The id of the idle taxi.
+   * @param position The current position of the taxi.
+   * @return The customer the taxi should drive to, or <code>null</code> if
+   *         there is none (yet).
+   */
+  @Nullable
+  Parcel assign(long taxi, Point position);
+
+  /**
+   * Is called when a taxi picked up a customer.
+   * @param customer The customer.
+   */
+  void pickedUp(Parcel customer);
+}
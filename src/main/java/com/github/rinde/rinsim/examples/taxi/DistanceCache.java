@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.github.rinde.rinsim.core.model.road.RoadModel;
+import com.github.rinde.rinsim.geom.Point;
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Bounded, thread-safe cache of shortest path distances between pairs of
+ * points on a {@link RoadModel}. When the cache is full the least recently
+ * used pairs are evicted. Hits and misses are counted, see {@link #stats()}.
+ * @author Rinde van Lon
+ */
+final class DistanceCache {
+  private final RoadModel roadModel;
+  private final Cache<OdPair, Double> cache;
+
+  DistanceCache(RoadModel rm, long maximumSize) {
+    checkArgument(maximumSize > 0, "The maximum size must be positive.");
+    roadModel = rm;
+    cache = CacheBuilder.newBuilder()
+      .maximumSize(maximumSize)
+      .recordStats()
+      .build();
+  }
+
+  /**
+   * Returns the length of the shortest path from origin to destination, in
+   * the distance unit of the road model. The path is only computed when the
+   * pair is not in the cache.
+   * @param origin The start of the path.
+   * @param destination The end of the path.
+   * @return The distance.
+   */
+  double getDistance(Point origin, Point destination) {
+    final OdPair key = OdPair.create(origin, destination);
+    final Double cached = cache.getIfPresent(key);
+    if (cached != null) {
+      return cached;
+    }
+    final double distance = roadModel.getDistanceOfPath(
+      roadModel.getShortestPathTo(origin, destination)).getValue();
+    cache.put(key, distance);
+    return distance;
+  }
+
+  /**
+   * Stores a distance that was computed elsewhere, e.g. as a by-product of
+   * another search.
+   * @param origin The start of the path.
+   * @param destination The end of the path.
+   * @param distance The length of the shortest path.
+   */
+  void put(Point origin, Point destination, double distance) {
+    cache.put(OdPair.create(origin, destination), distance);
+  }
+
+  /**
+   * @return The hit/miss statistics since the cache was created.
+   */
+  CacheStats stats() {
+    return cache.stats();
+  }
+
+  @Override
+  public String toString() {
+    final CacheStats s = cache.stats();
+    return String.format("DistanceCache{size=%d, hits=%d, misses=%d, "
+      + "hitRate=%.3f}", cache.size(), s.hitCount(), s.missCount(),
+      s.hitRate());
+  }
+
+  @AutoValue
+  abstract static class OdPair {
+    abstract Point origin();
+
+    abstract Point destination();
+
+    static OdPair create(Point origin, Point destination) {
+      return new AutoValue_DistanceCache_OdPair(origin, destination);
+    }
+  }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+import com.github.rinde.rinsim.geom.AliasTable;
+import com.github.rinde.rinsim.geom.NodeSnapshot;
+import com.github.rinde.rinsim.geom.Point;
+import com.github.rinde.rinsim.geom.RandomNodeStrategy;
+
+/**
+ * Demand model that draws nodes according to the empirical distribution of
+ * the pickup and dropoff locations found in historical trip files (the CSV
+ * files written by {@link TaxiExample2}). Every location is snapped to its
+ * nearest node once, afterwards a Walker alias table over the per-node
+ * frequencies draws nodes in constant time. The table is rebuilt only when the
+ * nodes of the graph change.
+ * @author Rinde van Lon
+ */
+final class EmpiricalDemand implements RandomNodeStrategy {
+  private static final String SEPARATOR = ",";
+  private static final List<String> PICKUP_X = Arrays.asList("PU_long");
+  private static final List<String> PICKUP_Y = Arrays.asList("PU_lat");
+  private static final List<String> DROPOFF_X =
+    Arrays.asList("DO_long", "DV_long");
+  private static final List<String> DROPOFF_Y =
+    Arrays.asList("DO_lat", "DV_lat");
+
+  // historical locations in graph coordinates (x = longitude, y = latitude)
+  private final double[] xs;
+  private final double[] ys;
+  @Nullable
+  private volatile Table table;
+
+  EmpiricalDemand(double[] xCoords, double[] yCoords) {
+    checkArgument(xCoords.length == yCoords.length,
+      "Coordinate arrays must have the same length.");
+    checkArgument(xCoords.length > 0, "At least one location is required.");
+    xs = xCoords;
+    ys = yCoords;
+  }
+
+  /**
+   * Reads all pickup and dropoff locations of the specified trip files.
+   * @param files The CSV files to read.
+   * @return A new demand model.
+   * @throws IOException if a file can not be read.
+   * @throws IllegalArgumentException if a file is not a valid trip file.
+   */
+  static EmpiricalDemand load(File... files) throws IOException {
+    final Locations locations = new Locations();
+    for (final File f : files) {
+      final InputStream in = new FileInputStream(f);
+      try {
+        read(in, locations);
+      } finally {
+        in.close();
+      }
+    }
+    return new EmpiricalDemand(Arrays.copyOf(locations.xs, locations.size),
+      Arrays.copyOf(locations.ys, locations.size));
+  }
+
+  /**
+   * @return The number of historical locations.
+   */
+  int size() {
+    return xs.length;
+  }
+
+  @Override
+  public Point sample(NodeSnapshot nodes, RandomGenerator generator) {
+    Table t = table;
+    if (t == null || t.snapshot != nodes) {
+      t = new Table(nodes, xs, ys);
+      table = t;
+    }
+    return nodes.node(t.nodeIndices[t.aliasTable.sample(generator)]);
+  }
+
+  static void read(InputStream in, Locations locations) throws IOException {
+    final BufferedReader reader =
+      new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    final String header = reader.readLine();
+    checkArgument(header != null, "A trip file needs a header.");
+    final List<String> columns = Arrays.asList(header.split(SEPARATOR));
+    for (int i = 0; i < columns.size(); i++) {
+      columns.set(i, columns.get(i).trim());
+    }
+    final int pux = indexOf(columns, PICKUP_X);
+    final int puy = indexOf(columns, PICKUP_Y);
+    final int dox = indexOf(columns, DROPOFF_X);
+    final int doy = indexOf(columns, DROPOFF_Y);
+
+    String line;
+    int lineNumber = 1;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      final String[] parts = line.split(SEPARATOR);
+      checkArgument(parts.length == columns.size(),
+        "Line %s: expected %s values but found %s.", lineNumber,
+        columns.size(), parts.length);
+      locations.add(parse(parts[pux], lineNumber),
+        parse(parts[puy], lineNumber));
+      locations.add(parse(parts[dox], lineNumber),
+        parse(parts[doy], lineNumber));
+    }
+  }
+
+  static int indexOf(List<String> columns, List<String> names) {
+    for (final String name : names) {
+      final int index = columns.indexOf(name);
+      if (index >= 0) {
+        return index;
+      }
+    }
+    throw new IllegalArgumentException(
+      "Trip file has none of the columns " + names + ".");
+  }
+
+  static double parse(String value, int lineNumber) {
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (final NumberFormatException e) {
+      throw new IllegalArgumentException(
+        "Line " + lineNumber + ": " + value.trim() + " is not a number.", e);
+    }
+  }
+
+  // growable primitive coordinate buffer
+  static final class Locations {
+    double[] xs = new double[1024];
+    double[] ys = new double[1024];
+    int size;
+
+    void add(double x, double y) {
+      if (size == xs.length) {
+        xs = Arrays.copyOf(xs, size * 2);
+        ys = Arrays.copyOf(ys, size * 2);
+      }
+      xs[size] = x;
+      ys[size] = y;
+      size++;
+    }
+  }
+
+  // alias table over the nodes that have at least one historical location
+  static final class Table {
+    final NodeSnapshot snapshot;
+    final int[] nodeIndices;
+    final AliasTable aliasTable;
+
+    Table(NodeSnapshot nodes, double[] xs, double[] ys) {
+      snapshot = nodes;
+      final int[] counts = new int[nodes.size()];
+      int distinct = 0;
+      for (int i = 0; i < xs.length; i++) {
+        final int node = nodes.nearestIndex(xs[i], ys[i]);
+        if (counts[node]++ == 0) {
+          distinct++;
+        }
+      }
+      nodeIndices = new int[distinct];
+      final double[] weights = new double[distinct];
+      int j = 0;
+      for (int i = 0; i < counts.length; i++) {
+        if (counts[i] > 0) {
+          nodeIndices[j] = i;
+          weights[j] = counts[i];
+          j++;
+        }
+      }
+      aliasTable = AliasTable.create(weights);
+    }
+  }
+}
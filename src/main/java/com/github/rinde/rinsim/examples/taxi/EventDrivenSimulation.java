@@ -0,0 +1,510 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+
+import javax.annotation.Nullable;
+import javax.measure.quantity.Duration;
+import javax.measure.unit.Unit;
+
+
+import com.github.rinde.rinsim.core.Simulator;
+import com.github.rinde.rinsim.core.model.pdp.Parcel;
+import com.github.rinde.rinsim.core.model.road.GraphRoadModel;
+import com.github.rinde.rinsim.core.model.road.RoadModel;
+import com.github.rinde.rinsim.core.model.road.RoadUnits;
+import com.github.rinde.rinsim.examples.taxi.TaxiExample2.Customer;
+import com.github.rinde.rinsim.geom.Connection;
+import com.github.rinde.rinsim.geom.Graph;
+import com.github.rinde.rinsim.geom.MultiAttributeData;
+import com.github.rinde.rinsim.geom.Point;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.math.DoubleMath;
+
+/**
+ * Runs a simulation of {@link TaxiExample2} from event to event instead of
+ * ticking every {@link Taxi} every tick. The events are the arrivals of
+ * customers, the arrivals of taxis at a pickup or a dropoff, the completions
+ * of the services and the batches of a {@link BatchDispatcher}, the clock
+ * jumps straight to the tick of the next event. A taxi that drives, or that
+ * waits for a service to complete, costs nothing until it arrives.
+ * <p>
+ * The trips are the same as those of the fixed-tick model. Events are therefore
+ * aligned to ticks and handled in the order in which the tick model would
+ * observe them: by tick, then the batch of the dispatcher, then the taxis in
+ * the order in which they were added, then the arrivals of customers. Travel
+ * is emulated with the arithmetic of the graph road model (see
+ * <code>GraphRoadModelImpl.doFollowPath</code>), split at the tick boundaries:
+ * a few floating point operations per tick without any routing or model
+ * updates, so a taxi that gives up a customer that was picked up by another
+ * taxi stops exactly where the tick model leaves it. Services take the time
+ * that remains in a tick and continue in the next ticks like the actions of
+ * the {@link com.github.rinde.rinsim.core.model.pdp.PDPModel}. Customers are
+ * taken from the {@link DemandSource} in the same order as in the tick model,
+ * so the random generator is drawn in the same order too.
+ * <p>
+ * The taxis and customers are not registered in the simulator, its road model
+ * is only used for its shortest paths and its clock is not started.
+ * @author Rinde van Lon
+ */
+final class EventDrivenSimulation {
+  // the precision of GraphSpatialRegistry.addAt(..) in doFollowPath
+  private static final double DELTA = 1e-6;
+  private static final long NONE = -1L;
+
+  private final SimulationContext context;
+  private final RoadModel roadModel;
+  private final Graph<?> graph;
+  private final DemandSource demand;
+  private final RoadUnits units;
+  private final Unit<Duration> timeUnit;
+  private final long tickLength;
+  private final double taxiSpeed;
+  private final Dispatcher dispatcher;
+  @Nullable
+  private final BatchDispatcher batchDispatcher;
+  private final List<TaxiState> taxis;
+  // taxis that asked the nearest dispatcher in vain, they ask again in the
+  // tick after the next customer arrives
+  private final List<TaxiState> sleeping;
+  // the taxis that drive to each customer that is not picked up yet
+  private final ListMultimap<Parcel, TaxiState> chasers;
+  // the keys of the events, see key(..)
+  private final PriorityQueue<Long> queue;
+  private long slots;
+  private long lastTick;
+  private long currentTick;
+  private long nextProgress;
+
+  /**
+   * @param ctx The context of the run, its dispatcher is set.
+   * @param simulator The simulator of the run, its road model and random
+   *          generator are used.
+   * @param customers The customers that arrive during the run.
+   * @param speed The speed of the taxis.
+   */
+  EventDrivenSimulation(SimulationContext ctx, Simulator simulator,
+      DemandSource customers, double speed) {
+    context = checkNotNull(ctx);
+    roadModel = simulator.getModelProvider().getModel(RoadModel.class);
+    graph = roadModel.get(GraphRoadModel.class).getGraph();
+    demand = checkNotNull(customers);
+    units = new RoadUnits(roadModel.getDistanceUnit(),
+      roadModel.getSpeedUnit());
+    timeUnit = simulator.getTimeUnit();
+    tickLength = simulator.getTimeStep();
+    taxiSpeed = units.toInSpeed(speed);
+    dispatcher = ctx.dispatcher();
+    batchDispatcher = dispatcher instanceof BatchDispatcher
+      ? (BatchDispatcher) dispatcher
+      : null;
+    taxis = new ArrayList<TaxiState>();
+    sleeping = new ArrayList<TaxiState>();
+    chasers = ArrayListMultimap.create();
+    queue = new PriorityQueue<Long>();
+  }
+
+  /**
+   * Adds a taxi, its id is the number of taxis that were added before it.
+   * @param position The start position of the taxi, a node.
+   */
+  void addTaxi(Point position) {
+    taxis.add(new TaxiState(taxis.size(), position));
+  }
+
+  /**
+   * Adds a customer that waits from the start of the simulation.
+   * @param customer The customer.
+   */
+  void addCustomer(Customer customer) {
+    dispatcher.customerArrived(customer, customer.getPickupLocation(), 0L);
+  }
+
+  /**
+   * Runs the simulation until the end time of the configuration. Like the
+   * tick model the last tick is the first that starts after the end time.
+   */
+  void run() {
+    checkState(slots == 0, "The simulation can only run once.");
+    final long endTime = context.config().endTime();
+    lastTick = endTime / tickLength + 1;
+    slots = taxis.size() + 2L;
+    if (batchDispatcher != null) {
+      queue.add(key(firstTickFrom(batchDispatcher.nextBatch()), 0));
+    }
+    for (final TaxiState taxi : taxis) {
+      schedule(taxi, 0);
+    }
+    scheduleArrival();
+
+    while (!queue.isEmpty() && queue.peek() / slots <= lastTick) {
+      final long key = queue.poll();
+      final long tick = key / slots;
+      final int slot = (int) (key % slots);
+      endTicksBefore(tick);
+      if (slot == 0) {
+        batch(tick);
+      } else if (slot == slots - 1) {
+        customerArrives(tick);
+      } else {
+        final TaxiState taxi = taxis.get(slot - 1);
+        // a taxi that arrives in the tick in which it departs is handled again
+        while (taxi.wakeKey == key) {
+          taxi.wakeKey = NONE;
+          handle(taxi, tick);
+        }
+      }
+    }
+    endTicksBefore(lastTick + 1);
+    for (final TaxiState taxi : taxis) {
+      if (taxi.leg != null) {
+        // still driving at the end
+        context.routeStats().moved(taxi.moves);
+      }
+    }
+  }
+
+  // the key orders the events in a tick like the tick model: the dispatcher,
+  // the taxis in the order of their ids and then the arrivals of customers
+  private long key(long tick, int slot) {
+    return tick * slots + slot;
+  }
+
+  private void schedule(TaxiState taxi, long tick) {
+    taxi.wakeKey = key(tick, taxi.id + 1);
+    queue.add(taxi.wakeKey);
+  }
+
+  private long firstTickFrom(long time) {
+    return (time + tickLength - 1) / tickLength;
+  }
+
+  // the end of every tick passes the watermark and progress, only the last
+  // tick in which something happened needs to be ended
+  private void endTicksBefore(long tick) {
+    if (tick > currentTick) {
+      context.advance((currentTick + 1) * tickLength);
+      final long endTime = context.config().endTime();
+      while (nextProgress < tick * tickLength) {
+        context.progress(nextProgress * 100 / endTime);
+        nextProgress += Math.max(1, endTime / 100);
+      }
+      currentTick = tick;
+    }
+  }
+
+  private void scheduleArrival() {
+    final long time = demand.nextArrival();
+    if (time != ArrivalProcess.NONE) {
+      queue.add(key(time / tickLength, (int) slots - 1));
+    }
+  }
+
+  // all customers that arrive in the tick, see ArrivalProcess
+  private void customerArrives(long tick) {
+    final long endOfTick = (tick + 1) * tickLength;
+    while (demand.nextArrival() < endOfTick) {
+      final long arrival = demand.nextArrival();
+      final Customer customer = demand.next();
+      dispatcher.customerArrived(customer, customer.getPickupLocation(),
+        arrival);
+    }
+    for (final TaxiState taxi : sleeping) {
+      schedule(taxi, tick + 1);
+    }
+    sleeping.clear();
+    scheduleArrival();
+  }
+
+  // the claimed taxis ask for their customer in the same tick
+  private void batch(long tick) {
+    final BatchDispatcher d = checkNotNull(batchDispatcher);
+    d.advance(tick * tickLength);
+    for (final Long id : d.claimedTaxis()) {
+      schedule(taxis.get(id.intValue()), tick);
+    }
+    queue.add(key(firstTickFrom(d.nextBatch()), 0));
+  }
+
+  private void handle(TaxiState taxi, long tick) {
+    if (taxi.customer == null) {
+      ask(taxi, tick);
+    } else if (!taxi.loaded) {
+      pickup(taxi, tick);
+    } else {
+      deliver(taxi, tick);
+    }
+  }
+
+  private void ask(TaxiState taxi, long tick) {
+    final Parcel customer = dispatcher.assign(taxi.id, taxi.position);
+    if (customer == null) {
+      if (batchDispatcher == null) {
+        sleeping.add(taxi);
+      }
+      return;
+    }
+    taxi.customer = customer;
+    chasers.put(customer, taxi);
+    depart(taxi, customer.getPickupLocation(), tick * tickLength);
+  }
+
+  private void pickup(TaxiState taxi, long tick) {
+    final Parcel customer = checkNotNull(taxi.customer);
+    arrive(taxi);
+    final long endOfTick = (tick + 1) * tickLength;
+    final long done = taxi.arrival + customer.getPickupDuration();
+    dispatcher.pickedUp(customer);
+    context.pickedUp(taxi.id, Math.min(done, endOfTick),
+      Taxi.toLatLon(taxi.position));
+    // the others notice it in this tick if they tick after this taxi
+    for (final TaxiState other : chasers.removeAll(customer)) {
+      if (other != taxi) {
+        giveUp(other, other.id > taxi.id ? tick : tick + 1);
+      }
+    }
+    taxi.loaded = true;
+    // a service that fits in the tick leaves the rest of the tick unused
+    depart(taxi, customer.getDeliveryLocation(), Math.max(done, endOfTick));
+  }
+
+  private void deliver(TaxiState taxi, long tick) {
+    final Parcel customer = checkNotNull(taxi.customer);
+    arrive(taxi);
+    final long done = taxi.arrival + customer.getDeliveryDuration();
+    final double distance = context.distanceCache().getDistance(
+      customer.getPickupLocation(), customer.getDeliveryLocation());
+    context.delivered(taxi.id, Math.min(done, (tick + 1) * tickLength),
+      Taxi.toLatLon(taxi.position), distance);
+    taxi.customer = null;
+    taxi.loaded = false;
+    // the taxi forgets its customer in the first tick with time left after
+    // the delivery, and asks for a new one in the next tick
+    schedule(taxi, Math.max(tick + 1, done / tickLength) + 1);
+  }
+
+  private void arrive(TaxiState taxi) {
+    context.routeStats().moved(taxi.moves);
+    final Movement leg = checkNotNull(taxi.leg);
+    taxi.position = leg.destination;
+    taxi.connection = null;
+    taxi.relativePosition = 0d;
+    taxi.leg = null;
+  }
+
+  // the taxi does not move in the tick in which it notices that its customer
+  // is gone, it asks for a new one in the next tick
+  private void giveUp(TaxiState taxi, long noticeTick) {
+    final Movement m = checkNotNull(taxi.leg).copy();
+    final long lastMove = Math.min(noticeTick, lastTick + 1);
+    while (m.time / tickLength < lastMove) {
+      if (m.tick()) {
+        break;
+      }
+    }
+    context.routeStats().moved(m.ticks);
+    taxi.position = m.position;
+    taxi.connection = m.connection;
+    taxi.relativePosition = m.relativePosition;
+    taxi.customer = null;
+    taxi.leg = null;
+    schedule(taxi, noticeTick + 1);
+  }
+
+  // computes the route like RoadModel.getShortestPathTo(RoadUser, Point) and
+  // follows it until the arrival, which is scheduled
+  private void depart(TaxiState taxi, Point destination, long time) {
+    if (time / tickLength > lastTick) {
+      return;
+    }
+    final List<Point> route = new ArrayList<Point>();
+    if (taxi.connection != null) {
+      route.add(taxi.position);
+      route.addAll(roadModel.getShortestPathTo(taxi.connection.to(),
+        destination));
+    } else {
+      route.addAll(roadModel.getShortestPathTo(taxi.position, destination));
+    }
+    context.routeStats().routeComputed();
+    taxi.leg = new Movement(taxi, route, time, destination);
+
+    final Movement m = taxi.leg.copy();
+    while (m.time / tickLength <= lastTick) {
+      final long tick = m.time / tickLength;
+      if (m.tick()) {
+        taxi.arrival = m.time;
+        taxi.moves = m.ticks;
+        schedule(taxi, tick);
+        return;
+      }
+    }
+    // arrives after the end
+    taxi.moves = m.ticks;
+  }
+
+  static final class TaxiState {
+    final int id;
+    // the position at the last event, a node or a point on a connection
+    Point position;
+    @Nullable
+    Connection<?> connection;
+    double relativePosition;
+    @Nullable
+    Parcel customer;
+    boolean loaded;
+    // the route to the customer or its destination, from the departure
+    @Nullable
+    Movement leg;
+    long arrival;
+    // the number of ticks in which the taxi moves along the leg
+    long moves;
+    long wakeKey;
+
+    TaxiState(int index, Point start) {
+      id = index;
+      position = start;
+      wakeKey = NONE;
+    }
+  }
+
+  /**
+   * A taxi that follows a route tick by tick, exactly like
+   * <code>GraphRoadModelImpl.doFollowPath</code>.
+   */
+  final class Movement {
+    final Point destination;
+    final Queue<Point> path;
+    Point position;
+    @Nullable
+    Connection<?> connection;
+    double relativePosition;
+    long time;
+    long ticks;
+
+    Movement(TaxiState taxi, List<Point> route, long departure, Point dest) {
+      this(dest, route, taxi.position, taxi.connection,
+        taxi.relativePosition, departure, 0);
+    }
+
+    private Movement(Point dest, Iterable<Point> route, Point pos,
+        @Nullable Connection<?> conn, double relPos, long t, long moves) {
+      destination = dest;
+      path = new LinkedList<Point>();
+      for (final Point p : route) {
+        path.add(p);
+      }
+      position = pos;
+      connection = conn;
+      relativePosition = relPos;
+      time = t;
+      ticks = moves;
+    }
+
+    Movement copy() {
+      return new Movement(destination, path, position, connection,
+        relativePosition, time, ticks);
+    }
+
+    // moves until the end of the tick, returns true and sets time to the
+    // arrival time if the destination is reached
+    boolean tick() {
+      final long endOfTick = (time / tickLength + 1) * tickLength;
+      final long timeLeft = endOfTick - time;
+      final long used = follow(timeLeft);
+      ticks++;
+      if (position.equals(destination)) {
+        time += used;
+        return true;
+      }
+      time = endOfTick;
+      return false;
+    }
+
+    private long follow(long available) {
+      long timeLeft = available;
+      boolean cont = true;
+      while (timeLeft > 0 && !path.isEmpty() && cont) {
+        final Point next = path.peek();
+        final Connection<?> conn = position.equals(next)
+          ? null
+          : connection != null ? connection : graph.getConnection(position,
+            next);
+        final double speed = maxSpeed(conn);
+        final double travelable =
+          speed * units.toInTime(timeLeft, timeUnit);
+        final double length = units.toInDist(conn == null ? 0d
+          : conn.getLength() - relativePosition);
+        final double travelled;
+        if (travelable >= length) {
+          path.remove();
+          if (conn != null) {
+            position = next;
+            connection = null;
+            relativePosition = 0d;
+          }
+          travelled = length;
+        } else {
+          cont = false;
+          travelled = travelable;
+          moveOnto(checkNotNull(conn),
+            relativePosition + units.toExDist(travelable));
+        }
+        timeLeft -= DoubleMath.roundToLong(
+          units.toExTime(travelled / speed, timeUnit), RoundingMode.HALF_DOWN);
+      }
+      return available - timeLeft;
+    }
+
+    // see GraphRoadModelImpl.getMaxSpeed(..)
+    private double maxSpeed(@Nullable Connection<?> conn) {
+      if (conn != null && conn.data().isPresent()
+        && conn.data().get() instanceof MultiAttributeData) {
+        final MultiAttributeData data = (MultiAttributeData) conn.data().get();
+        if (data.getMaxSpeed().isPresent()) {
+          return Math.min(units.toInSpeed(data.getMaxSpeed().get()),
+            taxiSpeed);
+        }
+      }
+      return taxiSpeed;
+    }
+
+    // see GraphSpatialRegistry.addAt(..)
+    private void moveOnto(Connection<?> conn, double relPos) {
+      final Point diff = Point.diff(conn.to(), conn.from());
+      final double perc = relPos / conn.getLength();
+      if (perc + DELTA >= 1) {
+        position = conn.to();
+        connection = null;
+        relativePosition = 0d;
+      } else {
+        position = new Point(conn.from().x + perc * diff.x,
+          conn.from().y + perc * diff.y);
+        connection = conn;
+        relativePosition = relPos;
+      }
+    }
+  }
+}
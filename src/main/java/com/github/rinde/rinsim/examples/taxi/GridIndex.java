@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import javax.annotation.Nullable;
+
+import com.github.rinde.rinsim.geom.Point;
+
+/**
+ * A dynamic spatial index of objects at fixed positions, e.g. the customers
+ * that wait for a taxi. The bounding box of the map is divided in square
+ * cells, an object is stored in the cell of its position (positions outside
+ * the box are stored in the nearest cell on its border). A nearest neighbor
+ * query visits the rings of cells around the query position until no cell
+ * further away can contain a closer object, so its cost depends on the local
+ * density instead of on the number of objects.
+ * <p>
+ * Positions are (longitude, latitude) in degrees and distances are the great
+ * circle distances of {@link Point#distance(Point, Point)} in km, objects at
+ * the same distance are ordered by the time they were added. Queries therefore return the same object as
+ * {@link com.github.rinde.rinsim.core.model.road.RoadModels#findClosestObject(Point, com.github.rinde.rinsim.core.model.road.RoadModel, Class)}
+ * does for objects that are registered in the same order.
+ * @param <T> The type of the objects.
+ * @author Rinde van Lon
+ */
+final class GridIndex<T> {
+  static final int DEFAULT_CELLS_PER_SIDE = 64;
+  // below this size a linear scan is cheaper than visiting (empty) cells
+  static final int LINEAR_SCAN_SIZE = 32;
+  // the km per degree of great circle of Point.distance(..)
+  static final double KM_PER_DEGREE = 60 * 1.1515 * 1.609344;
+
+  private final double minX;
+  private final double minY;
+  private final double cellSize;
+  private final int columns;
+  private final int rows;
+  private final List<List<Entry<T>>> cells;
+  // false if the box is not a valid lon/lat box, queries then scan all
+  // objects
+  private final boolean geographic;
+  // in the order in which the objects were added
+  private final Map<T, Entry<T>> entries;
+  private long nextSequence;
+
+  /**
+   * Creates an empty index.
+   * @param min The corner of the bounding box with the smallest coordinates.
+   * @param max The corner of the bounding box with the largest coordinates.
+   * @param cellsPerSide The number of cells along the longest side of the
+   *          bounding box.
+   */
+  GridIndex(Point min, Point max, int cellsPerSide) {
+    checkArgument(cellsPerSide > 0, "cellsPerSide must be positive.");
+    checkArgument(min.x <= max.x && min.y <= max.y,
+      "Invalid bounding box: %s %s.", min, max);
+    final double longest = Math.max(max.x - min.x, max.y - min.y);
+    minX = min.x;
+    minY = min.y;
+    cellSize = longest > 0 ? longest / cellsPerSide : 1;
+    columns = Math.max(1, (int) Math.ceil((max.x - min.x) / cellSize));
+    rows = Math.max(1, (int) Math.ceil((max.y - min.y) / cellSize));
+    cells = newArrayList(
+      Collections.<List<Entry<T>>>nCopies(columns * rows, null));
+    entries = newLinkedHashMap();
+    geographic = min.y >= -90 && max.y <= 90 && max.x - min.x <= 180;
+  }
+
+  /**
+   * @param points The points, e.g. the nodes of a graph.
+   * @param <T> The type of the objects.
+   * @return An empty index with {@link #DEFAULT_CELLS_PER_SIDE} cells along
+   *         the longest side of the bounding box of the points.
+   */
+  static <T> GridIndex<T> covering(Iterable<Point> points) {
+    double minX = Double.POSITIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    for (final Point p : points) {
+      minX = Math.min(minX, p.x);
+      minY = Math.min(minY, p.y);
+      maxX = Math.max(maxX, p.x);
+      maxY = Math.max(maxY, p.y);
+    }
+    checkArgument(minX <= maxX, "At least one point is required.");
+    return new GridIndex<T>(new Point(minX, minY), new Point(maxX, maxY),
+      DEFAULT_CELLS_PER_SIDE);
+  }
+
+  /**
+   * @param object The object, it must not be in the index already.
+   * @param position The position of the object.
+   */
+  void add(T object, Point position) {
+    checkArgument(!entries.containsKey(object), "%s is already indexed.",
+      object);
+    final int cell = row(position.y) * columns + column(position.x);
+    final Entry<T> e =
+      new Entry<T>(checkNotNull(object), position, cell, nextSequence++);
+    entries.put(object, e);
+    List<Entry<T>> bucket = cells.get(cell);
+    if (bucket == null) {
+      bucket = new ArrayList<Entry<T>>(2);
+      cells.set(cell, bucket);
+    }
+    bucket.add(e);
+  }
+
+  /**
+   * @param object The object to remove.
+   * @return <code>true</code> if the object was in the index.
+   */
+  boolean remove(T object) {
+    final Entry<T> e = entries.remove(object);
+    if (e == null) {
+      return false;
+    }
+    final List<Entry<T>> bucket = cells.get(e.cell);
+    final int last = bucket.size() - 1;
+    bucket.set(bucket.indexOf(e), bucket.get(last));
+    bucket.remove(last);
+    return true;
+  }
+
+  boolean contains(T object) {
+    return entries.containsKey(object);
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  /**
+   * @param position The query position.
+   * @return The object closest to the position, or <code>null</code> if the
+   *         index is empty.
+   */
+  @Nullable
+  T closest(Point position) {
+    final List<T> nearest = nearest(position, 1);
+    return nearest.isEmpty() ? null : nearest.get(0);
+  }
+
+  /**
+   * @param position The query position.
+   * @param k The maximum number of objects to return.
+   * @return The <code>k</code> objects closest to the position (or all
+   *         objects if there are fewer), closest first.
+   */
+  List<T> nearest(Point position, int k) {
+    checkArgument(k > 0, "k must be positive.");
+    // the worst candidate is at the head
+    final PriorityQueue<Candidate<T>> found =
+      new PriorityQueue<Candidate<T>>(Math.min(k, size()) + 1,
+        Collections.reverseOrder(Candidate.ORDER));
+    if (!geographic || size() <= Math.max(k, LINEAR_SCAN_SIZE)) {
+      for (final Entry<T> e : entries.values()) {
+        offer(found, k, e, position);
+      }
+    } else {
+      final int cx = column(position.x);
+      final int cy = row(position.y);
+      for (int r = 0;; r++) {
+        visitRing(found, k, position, cx, cy, r);
+        // compared with the block of the previous ring, which leaves a cell
+        // of margin for rounding in column() and row()
+        final double bound = distanceToOutside(position, cx, cy, r - 1);
+        if (found.size() == k && bound > found.peek().distance
+          || bound == Double.POSITIVE_INFINITY) {
+          break;
+        }
+      }
+    }
+    final List<Candidate<T>> sorted = new ArrayList<Candidate<T>>(found);
+    Collections.sort(sorted, Candidate.ORDER);
+    final List<T> result = new ArrayList<T>(sorted.size());
+    for (final Candidate<T> c : sorted) {
+      result.add(c.entry.object);
+    }
+    return result;
+  }
+
+  // visits the cells at Chebyshev distance r of (cx, cy)
+  private void visitRing(PriorityQueue<Candidate<T>> found, int k,
+      Point position, int cx, int cy, int r) {
+    for (int y = Math.max(0, cy - r); y <= Math.min(rows - 1, cy + r); y++) {
+      final boolean edge = y == cy - r || y == cy + r;
+      final int step = edge ? 1 : 2 * r;
+      for (int x = cx - r; x <= cx + r; x += Math.max(1, step)) {
+        if (x >= 0 && x < columns) {
+          final List<Entry<T>> bucket = cells.get(y * columns + x);
+          if (bucket != null) {
+            for (int i = 0; i < bucket.size(); i++) {
+              offer(found, k, bucket.get(i), position);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  // a lower bound (km) of the distance to all cells outside the block of
+  // cells within Chebyshev distance r of (cx, cy), sides on the border of the
+  // grid extend to infinity
+  private double distanceToOutside(Point p, int cx, int cy, int r) {
+    if (r < 0) {
+      return 0;
+    }
+    final double left = cx - r <= 0 ? Double.POSITIVE_INFINITY
+      : toMeridian(p.y, p.x - (minX + (cx - r) * cellSize));
+    final double right = cx + r >= columns - 1 ? Double.POSITIVE_INFINITY
+      : toMeridian(p.y, minX + (cx + r + 1) * cellSize - p.x);
+    final double bottom = cy - r <= 0 ? Double.POSITIVE_INFINITY
+      : (p.y - (minY + (cy - r) * cellSize)) * KM_PER_DEGREE;
+    final double top = cy + r >= rows - 1 ? Double.POSITIVE_INFINITY
+      : (minY + (cy + r + 1) * cellSize - p.y) * KM_PER_DEGREE;
+    return Math.max(0,
+      Math.min(Math.min(left, right), Math.min(bottom, top)));
+  }
+
+  // the great circle distance (km) from latitude lat to the meridian that is
+  // lon degrees of longitude away, at any latitude, which is a lower bound of
+  // the distance to all points at least lon degrees away
+  static double toMeridian(double lat, double lon) {
+    if (lon <= 0) {
+      return 0;
+    }
+    final double sin = Math.cos(Math.toRadians(lat))
+      * Math.sin(Math.toRadians(Math.min(lon, 90)));
+    return Math.toDegrees(Math.asin(sin)) * KM_PER_DEGREE;
+  }
+
+  private static <T> void offer(PriorityQueue<Candidate<T>> found, int k,
+      Entry<T> e, Point position) {
+    final Candidate<T> c =
+      new Candidate<T>(e, Point.distance(position, e.position));
+    if (found.size() < k) {
+      found.add(c);
+    } else if (Candidate.ORDER.compare(c, found.peek()) < 0) {
+      found.poll();
+      found.add(c);
+    }
+  }
+
+  private int column(double x) {
+    return clamp((int) Math.floor((x - minX) / cellSize), columns);
+  }
+
+  private int row(double y) {
+    return clamp((int) Math.floor((y - minY) / cellSize), rows);
+  }
+
+  private static int clamp(int i, int size) {
+    return Math.max(0, Math.min(size - 1, i));
+  }
+
+  static final class Entry<T> {
+    final T object;
+    final Point position;
+    final int cell;
+    final long sequence;
+
+    Entry(T obj, Point pos, int c, long seq) {
+      object = obj;
+      position = pos;
+      cell = c;
+      sequence = seq;
+    }
+  }
+
+  static final class Candidate<T> {
+    // by distance, then in the order the objects were added
+    static final Comparator<Candidate<?>> ORDER =
+      new Comparator<Candidate<?>>() {
+        @Override
+        public int compare(Candidate<?> a, Candidate<?> b) {
+          final int d = Double.compare(a.distance, b.distance);
+          return d != 0 ? d
+            : a.entry.sequence < b.entry.sequence ? -1
+              : a.entry.sequence == b.entry.sequence ? 0 : 1;
+        }
+      };
+
+    final Entry<T> entry;
+    final double distance;
+
+    Candidate(Entry<T> e, double dist) {
+      entry = e;
+      distance = dist;
+    }
+
+  }
+}
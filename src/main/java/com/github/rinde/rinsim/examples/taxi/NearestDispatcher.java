@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import javax.annotation.Nullable;
+
+import com.github.rinde.rinsim.core.model.pdp.Parcel;
+import com.github.rinde.rinsim.geom.Point;
+
+/**
+ * Each idle taxi drives to the customer closest to it, regardless of other
+ * taxis. Several taxis may drive to the same customer, all but the first to
+ * arrive give up when it is picked up.
+ * @author Rinde van Lon
+ */
+final class NearestDispatcher implements Dispatcher {
+  private final GridIndex<Parcel> waiting;
+
+  /**
+   * @param waitingCustomers An empty index of the customers that wait to be
+   *          picked up.
+   */
+  NearestDispatcher(GridIndex<Parcel> waitingCustomers) {
+    waiting = checkNotNull(waitingCustomers);
+  }
+
+  @Override
+  public void customerArrived(Parcel customer, Point position, long time) {
+    waiting.add(customer, position);
+  }
+
+  @Override
+  @Nullable
+  public Parcel assign(long taxi, Point position) {
+    return waiting.closest(position);
+  }
+
+  @Override
+  public void pickedUp(Parcel customer) {
+    waiting.remove(customer);
+  }
+
+  @Override
+  public String toString() {
+    return "NearestDispatcher{waiting=" + waiting.size() + "}";
+  }
+}
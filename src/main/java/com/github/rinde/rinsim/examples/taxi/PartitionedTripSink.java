@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import javax.annotation.Nullable;
+
+import com.github.rinde.rinsim.geom.Point;
+import com.google.common.io.CountingOutputStream;
+
+/**
+ * Writes trips to a sequence of files, partitions, according to a
+ * {@link Partitioning}. Partition <code>n</code> is written to
+ * <code>&lt;prefix&gt;.part-0000n&lt;extension&gt;</code>, each partition is a
+ * complete file in the output format (with its own header). A partition is
+ * written under a temporary name (ending in {@link #IN_PROGRESS_SUFFIX}) and
+ * renamed when it is finished, after which a line is appended to the manifest,
+ * <code>&lt;prefix&gt;.manifest.csv</code>:
+ * <code>partition, file, firstTime, lastTime, rows, startOffset,
+ * endOffset</code>. The times are the first and last time (ms) by which the
+ * trips are ordered, the offsets are the positions of the partition in the
+ * concatenation of all partitions, in bytes. Other processes can therefore
+ * consume each partition as soon as it appears in the manifest, while the
+ * simulation continues.
+ * <p>
+ * The trips are assumed to arrive in order of their delivery time, or of their
+ * pickup time for sorted output (see {@link SortingTripSink}). A time window
+ * is finished when a later trip arrives or as soon as the watermark passes its
+ * end, a watermark is never later than a trip that arrives afterwards. The
+ * size of a partition is measured after encoding, it can exceed the maximum by
+ * the size of the buffers of the format.
+ * @author Rinde van Lon
+ */
+final class PartitionedTripSink implements TripSink {
+  static final String MANIFEST_HEADER = "partition, file, firstTime, "
+    + "lastTime, rows, startOffset, endOffset";
+  static final String IN_PROGRESS_SUFFIX = ".inprogress";
+
+  private final TripFormat format;
+  private final String prefix;
+  private final Partitioning partitioning;
+  private final boolean pickupOrder;
+  private final Writer manifest;
+
+  @Nullable
+  private TripSink partition;
+  @Nullable
+  private CountingOutputStream partitionOutput;
+  private int partitions;
+  private long window;
+  private long firstTime;
+  private long lastTime;
+  private long rows;
+  private long offset;
+
+  /**
+   * Creates the sink and the manifest, partitions are created when trips
+   * arrive.
+   * @param tripFormat The format of the partitions.
+   * @param filePrefix The path of the partitions and the manifest without
+   *          the suffix.
+   * @param policy When to start a new partition, must be enabled.
+   * @param orderedByPickup <code>true</code> if trips arrive in order of
+   *          pickup time, <code>false</code> if in order of delivery time.
+   * @throws IOException if the manifest can not be created.
+   */
+  PartitionedTripSink(TripFormat tripFormat, String filePrefix,
+      Partitioning policy, boolean orderedByPickup) throws IOException {
+    checkArgument(policy.isEnabled(), "The partitioning must be enabled.");
+    format = checkNotNull(tripFormat);
+    prefix = checkNotNull(filePrefix);
+    partitioning = policy;
+    pickupOrder = orderedByPickup;
+    manifest = new BufferedWriter(new OutputStreamWriter(
+      new FileOutputStream(manifestFile(filePrefix)),
+      Charset.forName("US-ASCII")));
+    manifest.write(MANIFEST_HEADER);
+    manifest.write(System.getProperty("line.separator"));
+    manifest.flush();
+  }
+
+  /**
+   * @param filePrefix The prefix of a partitioned output.
+   * @return The manifest of the output.
+   */
+  static File manifestFile(String filePrefix) {
+    return new File(filePrefix + ".manifest.csv");
+  }
+
+  @Override
+  public void trip(long tripId, long taxiId, long pickupTime, Point pickup,
+      long deliveryTime, Point delivery, double distance) {
+    final long time = pickupOrder ? pickupTime : deliveryTime;
+    try {
+      if (partition != null && (isAfterWindow(time) || isFull())) {
+        finish();
+      }
+      if (partition == null) {
+        start(time);
+      }
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+    partition.trip(tripId, taxiId, pickupTime, pickup, deliveryTime, delivery,
+      distance);
+    lastTime = time;
+    rows++;
+  }
+
+  @Override
+  public void watermark(long time) {
+    if (partition != null && isAfterWindow(time)) {
+      try {
+        finish();
+      } catch (final IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (partition != null) {
+        finish();
+      }
+    } finally {
+      manifest.close();
+    }
+  }
+
+  private boolean isAfterWindow(long time) {
+    return partitioning.windowLength() > 0
+      && time / partitioning.windowLength() > window;
+  }
+
+  private boolean isFull() {
+    return partitioning.maxBytes() > 0
+      && partitionOutput.getCount() >= partitioning.maxBytes();
+  }
+
+  private File partitionFile(int index) {
+    return new File(String.format("%s.part-%05d%s", prefix, index,
+      format.extension()));
+  }
+
+  private void start(long time) throws IOException {
+    final File file = partitionFile(partitions);
+    partitionOutput = new CountingOutputStream(new FileOutputStream(
+      file.getPath() + IN_PROGRESS_SUFFIX));
+    partition = format.open(partitionOutput);
+    window = partitioning.windowLength() > 0
+      ? time / partitioning.windowLength()
+      : 0;
+    firstTime = time;
+    lastTime = time;
+    rows = 0;
+  }
+
+  // closes the partition (which flushes its buffers), publishes it under its
+  // final name and only then adds it to the manifest
+  private void finish() throws IOException {
+    final TripSink finished = partition;
+    partition = null;
+    finished.close();
+    final File file = partitionFile(partitions);
+    final File inProgress = new File(file.getPath() + IN_PROGRESS_SUFFIX);
+    if (file.exists() && !file.delete() || !inProgress.renameTo(file)) {
+      throw new IOException("Could not rename " + inProgress + " to " + file
+        + ".");
+    }
+    final long bytes = partitionOutput.getCount();
+    manifest.write(String.format("%d, %s, %d, %d, %d, %d, %d%n", partitions,
+      file.getName(), firstTime, lastTime, rows, offset, offset + bytes));
+    manifest.flush();
+    offset += bytes;
+    partitions++;
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * When {@link PartitionedTripSink} rolls over to a new partition: when the
+ * trips enter a new time window (an hour or a day of simulated time), when the
+ * partition has reached a size, both or never.
+ * @author Rinde van Lon
+ */
+@AutoValue
+abstract class Partitioning {
+  static final long DAY = 24 * SimulationConfig.HOUR;
+  static final long MEGABYTE = 1024 * 1024L;
+
+  /**
+   * @return The length in ms of the time windows, windows start at multiples
+   *         of this length, or 0 if partitions are not split by time.
+   */
+  abstract long windowLength();
+
+  /**
+   * @return The number of bytes after which a partition is closed, or 0 if
+   *         partitions are not split by size.
+   */
+  abstract long maxBytes();
+
+  /**
+   * @return <code>true</code> if the trips are partitioned at all.
+   */
+  boolean isEnabled() {
+    return windowLength() > 0 || maxBytes() > 0;
+  }
+
+  /**
+   * @return No partitioning, all trips go to a single file.
+   */
+  static Partitioning none() {
+    return create(0, 0);
+  }
+
+  /**
+   * @param windowLength The length of the time windows in ms, or 0.
+   * @param maxBytes The maximum size of a partition in bytes, or 0.
+   * @return The partitioning.
+   */
+  static Partitioning create(long windowLength, long maxBytes) {
+    checkArgument(windowLength >= 0, "windowLength must be non-negative.");
+    checkArgument(maxBytes >= 0, "maxBytes must be non-negative.");
+    return new AutoValue_Partitioning(windowLength, maxBytes);
+  }
+
+  /**
+   * @param spec "none", "hour", "day", a size such as "256mb", or a window
+   *          and a size separated by a plus, e.g. "day+256mb".
+   * @return The partitioning.
+   * @throws IllegalArgumentException if the specification is not valid.
+   */
+  static Partitioning parse(String spec) {
+    long window = 0;
+    long bytes = 0;
+    for (final String part : spec.split("\\+")) {
+      if ("none".equals(part)) {
+        continue;
+      } else if ("hour".equals(part)) {
+        window = SimulationConfig.HOUR;
+      } else if ("day".equals(part)) {
+        window = DAY;
+      } else if (part.endsWith("mb")) {
+        bytes = Long.parseLong(part.substring(0, part.length() - 2)) * MEGABYTE;
+        checkArgument(bytes > 0, "The partition size must be positive: %s.",
+          spec);
+      } else {
+        throw new IllegalArgumentException("Unknown partitioning: " + spec
+          + ", expected none, hour, day, <n>mb or a window+<n>mb.");
+      }
+    }
+    return create(window, bytes);
+  }
+}
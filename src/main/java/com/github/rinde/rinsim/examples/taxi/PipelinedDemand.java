@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.math3.random.MersenneTwister;
+import org.apache.commons.math3.random.RandomGenerator;
+
+import com.github.rinde.rinsim.core.model.road.ContractedGraphRoadModel;
+import com.github.rinde.rinsim.core.model.road.GraphRoadModel;
+import com.github.rinde.rinsim.core.model.road.RoadModel;
+import com.github.rinde.rinsim.examples.taxi.TaxiExample2.Customer;
+import com.github.rinde.rinsim.geom.Graph;
+import com.github.rinde.rinsim.geom.Graphs;
+import com.github.rinde.rinsim.geom.Point;
+import com.github.rinde.rinsim.geom.ReachableNodes;
+import com.google.auto.value.AutoValue;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * Pre-generates the customers of a run on background threads, so the
+ * simulation thread does not wait for the shortest path searches of the
+ * dropoffs. A producer thread draws the arrival times (see
+ * {@link ArrivalProcess}) and submits each arrival to a pool of workers, which
+ * draw its pickup, dropoff and size and compute the distance between them.
+ * The futures are queued in order of arrival in a bounded queue, which the
+ * simulation thread drains.
+ * <p>
+ * The arrival times and every customer are drawn from their own random
+ * generator, seeded from the seed of the run and the index of the customer.
+ * The customers therefore do not depend on the number of workers or on the
+ * order in which they finish, but they differ from the customers of
+ * {@link SequentialDemand}, which draws everything from the random generator
+ * of the simulator.
+ * <p>
+ * The road model is not thread-safe, the workers only use its (read-only)
+ * graph, its random positions and, if present, its contraction hierarchy.
+ * The distances are put in the {@link DistanceCache} on the simulation
+ * thread when the customer is taken.
+ * @author Rinde van Lon
+ */
+final class PipelinedDemand implements DemandSource {
+  /**
+   * The default number of customers that are generated ahead of the
+   * simulation.
+   */
+  static final int DEFAULT_CAPACITY = 1024;
+  // SplitMix64 constants
+  private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+  private static final long MIX1 = 0xBF58476D1CE4E5B9L;
+  private static final long MIX2 = 0x94D049BB133111EBL;
+
+  private final SimulationContext context;
+  private final BlockingQueue<Future<CustomerRequest>> queue;
+  private final ExecutorService workers;
+  private final Thread producer;
+  @Nullable
+  private CustomerRequest head;
+  private boolean exhausted;
+  private long customers;
+  private long waitTime;
+
+  /**
+   * Starts generating customers.
+   * @param ctx The context of the run.
+   * @param rm The road model of the run.
+   * @param threads The number of workers.
+   * @param capacity The maximum number of customers that are generated ahead
+   *          of the simulation.
+   */
+  PipelinedDemand(SimulationContext ctx, RoadModel rm, int threads,
+      int capacity) {
+    checkArgument(threads > 0, "At least one thread is required.");
+    checkArgument(capacity > 0, "The capacity must be positive.");
+    context = checkNotNull(ctx);
+    queue = new ArrayBlockingQueue<Future<CustomerRequest>>(capacity);
+    workers = Executors.newFixedThreadPool(threads, daemonThreads());
+    producer = daemonThreads().newThread(
+      new Producer(ctx.config(), new Sampler(ctx.config(), rm), queue,
+        workers));
+    producer.start();
+  }
+
+  @Override
+  public long nextArrival() {
+    final CustomerRequest r = peek();
+    return r == null ? ArrivalProcess.NONE : r.arrivalTime();
+  }
+
+  @Override
+  public Customer next() {
+    final CustomerRequest r = peek();
+    checkState(r != null, "No more customers arrive.");
+    head = null;
+    customers++;
+    context.distanceCache().put(r.pickup(), r.dropoff(), r.distance());
+    return TaxiExample2.newCustomer(r.pickup(), r.dropoff(), r.size());
+  }
+
+  @Override
+  public void close() {
+    producer.interrupt();
+    workers.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    return "PipelinedDemand{customers=" + customers + ", waitTime="
+      + waitTime + " ms}";
+  }
+
+  @Nullable
+  private CustomerRequest peek() {
+    if (head == null && !exhausted) {
+      final long start = System.currentTimeMillis();
+      try {
+        head = queue.take().get();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException(e);
+      } catch (final ExecutionException e) {
+        throw new IllegalStateException(e.getCause());
+      }
+      waitTime += System.currentTimeMillis() - start;
+      exhausted = head == null;
+    }
+    return head;
+  }
+
+  // the seed of the random generator of substream index, -1 is the stream of
+  // the arrival times
+  static long substreamSeed(long seed, long index) {
+    long z = seed + (index + 1) * GOLDEN_GAMMA;
+    z = (z ^ (z >>> 30)) * MIX1;
+    z = (z ^ (z >>> 27)) * MIX2;
+    return z ^ (z >>> 31);
+  }
+
+  static ThreadFactory daemonThreads() {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        final Thread t = new Thread(r, "demand");
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+
+  // draws the arrival times and submits a sample per arrival, the end is
+  // marked with a null request
+  static class Producer implements Runnable {
+    private final SimulationConfig config;
+    private final Sampler sampler;
+    private final BlockingQueue<Future<CustomerRequest>> queue;
+    private final ExecutorService workers;
+
+    Producer(SimulationConfig c, Sampler s,
+        BlockingQueue<Future<CustomerRequest>> q, ExecutorService w) {
+      config = c;
+      sampler = s;
+      queue = q;
+      workers = w;
+    }
+
+    @Override
+    public void run() {
+      final ArrivalProcess arrivals = ArrivalProcess.create(config,
+        new MersenneTwister(substreamSeed(config.randomSeed(), -1)));
+      Future<CustomerRequest> end;
+      try {
+        long index = 0;
+        while (arrivals.peek() != ArrivalProcess.NONE) {
+          final long time = arrivals.poll();
+          final long seed = substreamSeed(config.randomSeed(), index++);
+          queue.put(workers.submit(new Callable<CustomerRequest>() {
+            @Override
+            public CustomerRequest call() {
+              return sampler.sample(time, new MersenneTwister(seed));
+            }
+          }));
+        }
+        end = Futures.immediateFuture(null);
+      } catch (final InterruptedException e) {
+        // closed before all customers were generated
+        Thread.currentThread().interrupt();
+        return;
+      } catch (final RuntimeException e) {
+        end = Futures.immediateFailedFuture(e);
+      }
+      try {
+        queue.put(end);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  // draws a customer like TaxiExample2.newCustomer(..), but routes on the
+  // graph or the contraction hierarchy instead of the road model
+  static class Sampler {
+    private final SimulationConfig config;
+    private final RoadModel roadModel;
+    private final Graph<?> graph;
+    @Nullable
+    private final ContractedGraphRoadModel contracted;
+
+    Sampler(SimulationConfig c, RoadModel rm) {
+      config = c;
+      roadModel = rm;
+      final GraphRoadModel grm = rm.get(GraphRoadModel.class);
+      graph = grm.getGraph();
+      contracted = grm instanceof ContractedGraphRoadModel
+        ? (ContractedGraphRoadModel) grm : null;
+    }
+
+    CustomerRequest sample(long time, RandomGenerator rng) {
+      final Point pickup = roadModel.getRandomPosition(rng);
+      Point dropoff;
+      double distance;
+      if (config.boundedDropoffSearch()) {
+        final ReachableNodes reachable = ReachableNodes.search(graph, pickup,
+          config.maxDropoffDistance());
+        final int index =
+          reachable.randomIndexAtLeast(config.minDropoffDistance(), rng);
+        dropoff = reachable.node(index);
+        distance = reachable.distance(index);
+      } else {
+        do {
+          dropoff = roadModel.getRandomPosition(rng);
+          distance = distance(pickup, dropoff);
+        } while (distance < config.minDropoffDistance());
+      }
+      return CustomerRequest.create(time, pickup, dropoff,
+        TaxiExample2.randomSize(rng), distance);
+    }
+
+    private double distance(Point from, Point to) {
+      final List<Point> path = contracted == null
+        ? Graphs.shortestPathEuclideanDistance(graph, from, to)
+        : contracted.getHierarchy().shortestPath(from, to);
+      return roadModel.getDistanceOfPath(path).getValue();
+    }
+  }
+
+  @AutoValue
+  abstract static class CustomerRequest {
+    abstract long arrivalTime();
+
+    abstract Point pickup();
+
+    abstract Point dropoff();
+
+    abstract int size();
+
+    abstract double distance();
+
+    static CustomerRequest create(long arrivalTime, Point pickup,
+        Point dropoff, int size, double distance) {
+      return new AutoValue_PipelinedDemand_CustomerRequest(arrivalTime, pickup,
+        dropoff, size, distance);
+    }
+  }
+}
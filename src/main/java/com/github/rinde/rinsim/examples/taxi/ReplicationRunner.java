@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.math3.distribution.TDistribution;
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+
+import com.github.rinde.rinsim.core.model.ModelBuilder;
+import com.github.rinde.rinsim.geom.Graph;
+import com.github.rinde.rinsim.geom.MultiAttributeData;
+import com.google.auto.value.AutoValue;
+
+/**
+ * Runs replications of {@link TaxiExample2} with consecutive random seeds on a
+ * fixed thread pool. The map is loaded once, all replications share the
+ * (read-only) graph and its indexes, e.g. the contraction hierarchy. Each
+ * replication writes its trips to its own file,
+ * <code>&lt;map&gt;.&lt;seed&gt;.csv</code> (or the extension of the output
+ * format, or partitions with a manifest, see {@link PartitionedTripSink}),
+ * and a summary with confidence
+ * intervals over all replications is printed at the end.
+ * <p>
+ * Arguments: the number of replications, the number of threads and then the
+ * arguments of {@link TaxiExample2#main(String[])}.
+ * @author Rinde van Lon
+ */
+public final class ReplicationRunner {
+  static final double CONFIDENCE_LEVEL = .95;
+
+  private ReplicationRunner() {}
+
+  /**
+   * Starts the replications.
+   * @param args The number of replications, the number of threads, followed
+   *          by the arguments of {@link TaxiExample2}.
+   */
+  public static void main(String[] args) {
+    checkArgument(args.length >= 8,
+      "Usage: replications threads map taxis customers probability hours "
+        + "tick [key=value | --flag]...");
+    final int replications = Integer.parseInt(args[0]);
+    final int threads = Integer.parseInt(args[1]);
+    final SimulationConfig config =
+      SimulationConfig.parse(Arrays.copyOfRange(args, 2, args.length));
+
+    final long start = System.currentTimeMillis();
+    final Graph<MultiAttributeData> graph = TaxiExample2.prepareGraph(config);
+    final ModelBuilder<?, ?> roadModel =
+      TaxiExample2.createRoadModel(graph, config);
+    System.out.println("loaded " + config.mapFile() + " in "
+      + (System.currentTimeMillis() - start) + " ms");
+
+    final List<Replication> results =
+      run(config, replications, threads, roadModel);
+    System.out.println(summarize(results,
+      System.currentTimeMillis() - start));
+  }
+
+  /**
+   * Runs the replications of a configuration with seeds
+   * <code>randomSeed</code>, <code>randomSeed + 1</code>, ...
+   * @param config The configuration of the replications.
+   * @param replications The number of replications.
+   * @param threads The number of replications that run concurrently.
+   * @param roadModel The road model builder shared by all replications.
+   * @return The results in the order of their seeds.
+   */
+  static List<Replication> run(SimulationConfig config, int replications,
+      int threads,
+      final ModelBuilder<?, ?> roadModel) {
+    checkArgument(replications > 0, "At least one replication is required.");
+    checkArgument(threads > 0, "At least one thread is required.");
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<Replication>> futures =
+        new ArrayList<Future<Replication>>();
+      for (int i = 0; i < replications; i++) {
+        final SimulationConfig seeded =
+          config.withRandomSeed(config.randomSeed() + i);
+        futures.add(executor.submit(new Callable<Replication>() {
+          @Override
+          public Replication call() {
+            return runReplication(seeded, roadModel);
+          }
+        }));
+      }
+      final List<Replication> results = new ArrayList<Replication>();
+      for (final Future<Replication> f : futures) {
+        final Replication r = f.get();
+        System.out.println(r);
+        results.add(r);
+      }
+      return results;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (final ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  static Replication runReplication(SimulationConfig config,
+      ModelBuilder<?, ?> roadModel) {
+    final String prefix = config.mapFile() + "." + config.randomSeed();
+    final TripSink trips = TaxiExample2.openTripSink(config, prefix);
+    final SimulationContext context =
+      new SimulationContext(config, trips, null);
+    final long start = System.currentTimeMillis();
+    try {
+      TaxiExample2.run(context, roadModel);
+    } finally {
+      TaxiExample2.close(trips);
+    }
+    return Replication.create(config.randomSeed(),
+      TaxiExample2.outputFile(config, prefix), context.deliveredTrips(),
+      context.routeStats().getRoutes(),
+      context.distanceCache().stats().hitRate(),
+      System.currentTimeMillis() - start);
+  }
+
+  static String summarize(List<Replication> results, long wallTime) {
+    final SummaryStatistics trips = new SummaryStatistics();
+    final SummaryStatistics routes = new SummaryStatistics();
+    final SummaryStatistics time = new SummaryStatistics();
+    for (final Replication r : results) {
+      trips.addValue(r.trips());
+      routes.addValue(r.routes());
+      time.addValue(r.runTime());
+    }
+    return String.format("replications=%d, wallTime=%d ms, "
+      + "totalRunTime=%.0f ms%n"
+      + "trips   %s%nroutes  %s%nrunTime %s",
+      results.size(), wallTime, time.getSum(), describe(trips),
+      describe(routes), describe(time));
+  }
+
+  // mean, standard deviation and the half-width of the confidence interval
+  // of the mean (Student's t)
+  static String describe(SummaryStatistics stats) {
+    final long n = stats.getN();
+    final double halfWidth = n < 2 ? Double.NaN
+      : new TDistribution(n - 1).inverseCumulativeProbability(
+        1 - (1 - CONFIDENCE_LEVEL) / 2) * stats.getStandardDeviation()
+        / Math.sqrt(n);
+    return String.format("mean=%.2f sd=%.2f ci%.0f=[%.2f, %.2f] min=%.0f "
+      + "max=%.0f", stats.getMean(), stats.getStandardDeviation(),
+      CONFIDENCE_LEVEL * 100, stats.getMean() - halfWidth,
+      stats.getMean() + halfWidth, stats.getMin(), stats.getMax());
+  }
+
+  /**
+   * The outcome of one replication.
+   */
+  @AutoValue
+  abstract static class Replication {
+    abstract long seed();
+
+    abstract File output();
+
+    abstract long trips();
+
+    abstract long routes();
+
+    abstract double distanceCacheHitRate();
+
+    abstract long runTime();
+
+    static Replication create(long seed, File output, long trips, long routes,
+        double hitRate, long runTime) {
+      return new AutoValue_ReplicationRunner_Replication(seed, output, trips,
+        routes, hitRate, runTime);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe counters of the routes that {@link Taxi}s computed and of the
+ * ticks in which they moved along those routes. With per-vehicle route
+ * memoization the number of routes should be close to the number of trips, not
+ * to the number of moves.
+ * @author Rinde van Lon
+ */
+final class RouteStats {
+  private final AtomicLong routes = new AtomicLong();
+  private final AtomicLong moves = new AtomicLong();
+
+  void routeComputed() {
+    routes.incrementAndGet();
+  }
+
+  void moved() {
+    moves.incrementAndGet();
+  }
+
+  void moved(long ticks) {
+    moves.addAndGet(ticks);
+  }
+
+  /**
+   * @return The number of shortest path computations.
+   */
+  long getRoutes() {
+    return routes.get();
+  }
+
+  /**
+   * @return The number of ticks in which a taxi moved along a route.
+   */
+  long getMoves() {
+    return moves.get();
+  }
+
+  @Override
+  public String toString() {
+    final long r = routes.get();
+    final long m = moves.get();
+    return String.format("RouteStats{routes=%d, moves=%d, movesPerRoute=%.1f}",
+      r, m, r == 0 ? 0d : (double) m / r);
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+import com.github.rinde.rinsim.core.model.road.RoadModel;
+import com.github.rinde.rinsim.examples.taxi.TaxiExample2.Customer;
+
+/**
+ * Draws each customer on the simulation thread when it arrives, from the
+ * random generator of the simulation: first its arrival time (see
+ * {@link ArrivalProcess}), then its pickup, dropoff and size.
+ * @author Rinde van Lon
+ */
+final class SequentialDemand implements DemandSource {
+  private final SimulationContext context;
+  private final RandomGenerator rng;
+  private final RoadModel roadModel;
+  private final ArrivalProcess arrivals;
+  private long customers;
+
+  SequentialDemand(SimulationContext ctx, RandomGenerator random,
+      RoadModel rm) {
+    context = checkNotNull(ctx);
+    rng = checkNotNull(random);
+    roadModel = checkNotNull(rm);
+    arrivals = ArrivalProcess.create(ctx.config(), random);
+  }
+
+  @Override
+  public long nextArrival() {
+    return arrivals.peek();
+  }
+
+  @Override
+  public Customer next() {
+    checkState(arrivals.poll() != ArrivalProcess.NONE,
+      "No more customers arrive.");
+    customers++;
+    return TaxiExample2.newCustomer(context, rng, roadModel);
+  }
+
+  @Override
+  public void close() {}
+
+  @Override
+  public String toString() {
+    return "SequentialDemand{customers=" + customers + "}";
+  }
+}
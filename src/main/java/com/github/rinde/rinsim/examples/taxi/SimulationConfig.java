@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * The immutable configuration of a run of {@link TaxiExample2}. A
+ * configuration can be shared by concurrent runs, e.g. all replications of
+ * {@link ReplicationRunner} use the same configuration with a different seed.
+ * @author Rinde van Lon
+ */
+@AutoValue
+abstract class SimulationConfig {
+  static final long HOUR = 60 * 60 * 1000L;
+  // map, taxis, customers, probability, hours and tick length
+  static final int POSITIONAL_ARGUMENTS = 6;
+
+  /**
+   * @return The map file, a dot or OpenStreetMap file.
+   */
+  abstract String mapFile();
+
+  /**
+   * @return The number of taxis in the simulation.
+   */
+  abstract int numTaxis();
+
+  /**
+   * @return The initial number of customers.
+   */
+  abstract int numCustomers();
+
+  /**
+   * @return The probability to generate a new customer each tick, only used
+   *         without {@link #arrivalRates()}.
+   */
+  abstract double newCustomerProbability();
+
+  /**
+   * @return The duration of the simulation in ms.
+   */
+  abstract long endTime();
+
+  /**
+   * @return The tick length in ms.
+   */
+  abstract long tickLength();
+
+  abstract long randomSeed();
+
+  /**
+   * @return How pickup/dropoff nodes are drawn: "uniform", "gaussian",
+   *         historical trip files ending in .csv (separated by
+   *         File.pathSeparator, see {@link EmpiricalDemand}) or the path of a
+   *         Gaussian mixture file (see
+   *         {@link com.github.rinde.rinsim.geom.GaussianMixtureDemand}), or
+   *         <code>null</code> to use the default of the graph.
+   */
+  @Nullable
+  abstract String demandModel();
+
+  /**
+   * @return The minimum shortest path distance (km) between pickup and
+   *         dropoff.
+   */
+  abstract double minDropoffDistance();
+
+  /**
+   * @return The maximum shortest path distance (km) between pickup and
+   *         dropoff, only used by the bounded search.
+   */
+  abstract double maxDropoffDistance();
+
+  /**
+   * @return If <code>true</code> dropoffs are drawn from a bounded search
+   *         around the pickup, otherwise random positions are drawn until one
+   *         is far enough.
+   */
+  abstract boolean boundedDropoffSearch();
+
+  /**
+   * @return If <code>true</code> shortest paths are computed with a
+   *         contraction hierarchy of the map, which is stored next to the map
+   *         file (see {@link com.github.rinde.rinsim.geom.ContractionHierarchy}).
+   */
+  abstract boolean contractionHierarchy();
+
+  /**
+   * @return The encoding of the trip output.
+   */
+  abstract TripFormat outputFormat();
+
+  /**
+   * @return If <code>true</code> trips are written in order of pickup time,
+   *         otherwise in order of delivery time (see {@link SortingTripSink}).
+   */
+  abstract boolean sortedOutput();
+
+  /**
+   * @return How the trip output is split into partitions (see
+   *         {@link PartitionedTripSink}).
+   */
+  abstract Partitioning partitioning();
+
+  /**
+   * @return The batch window (ms) of the {@link BatchDispatcher}, or 0 to let
+   *         each taxi drive to its nearest customer (see
+   *         {@link NearestDispatcher}).
+   */
+  abstract long dispatchWindow();
+
+  /**
+   * @return If <code>true</code> the simulation jumps from event to event
+   *         instead of ticking every taxi every tick, with the same trips as
+   *         output (see {@link EventDrivenSimulation}).
+   */
+  abstract boolean eventDriven();
+
+  /**
+   * @return The time-of-day profile of a Poisson arrival process of
+   *         customers, or <code>null</code> to draw at most one customer per
+   *         tick (see {@link ArrivalProcess}).
+   */
+  @Nullable
+  abstract ArrivalRates arrivalRates();
+
+  /**
+   * @return The number of background threads that pre-generate customers
+   *         (see {@link PipelinedDemand}), or 0 to draw each customer on the
+   *         simulation thread when it arrives (see {@link SequentialDemand}).
+   */
+  abstract int demandThreads();
+
+  abstract Builder toBuilder();
+
+  /**
+   * @param seed The seed.
+   * @return A copy of this configuration with the specified seed.
+   */
+  SimulationConfig withRandomSeed(long seed) {
+    return toBuilder().randomSeed(seed).build();
+  }
+
+  /**
+   * @return A builder with the default configuration.
+   */
+  static Builder builder() {
+    return new AutoValue_SimulationConfig.Builder()
+      .mapFile("/home/abdu/eclipse-workspace/test1.dot")
+      .numTaxis(4)
+      .numCustomers(5)
+      .newCustomerProbability(.01)
+      .endTime(24 * HOUR)
+      .tickLength(1000L)
+      .randomSeed(123L)
+      .demandModel(null)
+      .minDropoffDistance(1)
+      .maxDropoffDistance(Double.POSITIVE_INFINITY)
+      .boundedDropoffSearch(false)
+      .contractionHierarchy(false)
+      .outputFormat(TripFormat.CSV)
+      .sortedOutput(false)
+      .partitioning(Partitioning.none())
+      .dispatchWindow(0L)
+      .eventDriven(false)
+      .arrivalRates(null)
+      .demandThreads(0);
+  }
+
+  /**
+   * Parses the command line arguments of {@link TaxiExample2}: the positional
+   * arguments map, taxis, customers, customer probability, hours and tick
+   * length, optionally followed by options in any order:
+   * <ul>
+   * <li><code>demand=</code>the demand model, see {@link #demandModel()}</li>
+   * <li><code>--search</code> draws dropoffs with a bounded search</li>
+   * <li><code>maxDropoff=</code>the maximum dropoff distance in km</li>
+   * <li><code>--ch</code> routes with a contraction hierarchy</li>
+   * <li><code>format=</code>the output format, see
+   * {@link TripFormat#parse(String)}</li>
+   * <li><code>--sorted</code> writes the trips in order of pickup</li>
+   * <li><code>partitioning=</code>the partitioning, see
+   * {@link Partitioning#parse(String)}</li>
+   * <li><code>dispatch=</code><code>nearest</code> or the batch window of the
+   * dispatcher in ms</li>
+   * <li><code>--events</code> runs the event-driven simulation</li>
+   * <li><code>arrivals=</code><code>tick</code> or the arrival rates, see
+   * {@link ArrivalRates#parse(String)}</li>
+   * <li><code>demandThreads=</code>the number of demand threads</li>
+   * </ul>
+   * @param args The arguments.
+   * @return The configuration, options that are absent have their default
+   *         value.
+   * @throws IllegalArgumentException if an option is unknown, malformed or
+   *           specified more than once.
+   */
+  static SimulationConfig parse(String... args) {
+    checkArgument(args.length >= POSITIONAL_ARGUMENTS,
+      "Expected at least %s arguments, found %s.", POSITIONAL_ARGUMENTS,
+      args.length);
+    final Builder b = builder()
+      .mapFile(args[0])
+      .numTaxis(Integer.parseInt(args[1]))
+      .numCustomers(Integer.parseInt(args[2]))
+      .newCustomerProbability(Double.parseDouble(args[3]))
+      .endTime(Long.parseLong(args[4]) * HOUR)
+      .tickLength(Long.parseLong(args[5]));
+    final Set<String> seen = new HashSet<String>();
+    for (int i = POSITIONAL_ARGUMENTS; i < args.length; i++) {
+      final String arg = args[i];
+      final String key;
+      if (arg.startsWith("--")) {
+        key = arg.substring(2);
+        parseFlag(b, key);
+      } else {
+        final int eq = arg.indexOf('=');
+        checkArgument(eq > 0, "Expected key=value or --flag, found '%s'.",
+          arg);
+        key = arg.substring(0, eq);
+        parseOption(b, key, arg.substring(eq + 1));
+      }
+      checkArgument(seen.add(key), "'%s' is specified more than once.", key);
+    }
+    return b.build();
+  }
+
+  private static void parseFlag(Builder b, String flag) {
+    if ("search".equals(flag)) {
+      b.boundedDropoffSearch(true);
+    } else if ("ch".equals(flag)) {
+      b.contractionHierarchy(true);
+    } else if ("sorted".equals(flag)) {
+      b.sortedOutput(true);
+    } else if ("events".equals(flag)) {
+      b.eventDriven(true);
+    } else {
+      throw new IllegalArgumentException("Unknown flag: --" + flag + ".");
+    }
+  }
+
+  private static void parseOption(Builder b, String key, String value) {
+    if ("demand".equals(key)) {
+      b.demandModel(value);
+    } else if ("maxDropoff".equals(key)) {
+      b.maxDropoffDistance(Double.parseDouble(value));
+    } else if ("format".equals(key)) {
+      b.outputFormat(TripFormat.parse(value));
+    } else if ("partitioning".equals(key)) {
+      b.partitioning(Partitioning.parse(value));
+    } else if ("dispatch".equals(key)) {
+      b.dispatchWindow("nearest".equals(value) ? 0L : Long.parseLong(value));
+    } else if ("arrivals".equals(key)) {
+      b.arrivalRates("tick".equals(value) ? null : ArrivalRates.parse(value));
+    } else if ("demandThreads".equals(key)) {
+      b.demandThreads(Integer.parseInt(value));
+    } else {
+      throw new IllegalArgumentException("Unknown option: " + key + ".");
+    }
+  }
+
+  @AutoValue.Builder
+  abstract static class Builder {
+    abstract Builder mapFile(String file);
+
+    abstract Builder numTaxis(int taxis);
+
+    abstract Builder numCustomers(int customers);
+
+    abstract Builder newCustomerProbability(double probability);
+
+    abstract Builder endTime(long time);
+
+    abstract Builder tickLength(long length);
+
+    abstract Builder randomSeed(long seed);
+
+    abstract Builder demandModel(@Nullable String model);
+
+    abstract Builder minDropoffDistance(double distance);
+
+    abstract Builder maxDropoffDistance(double distance);
+
+    abstract Builder boundedDropoffSearch(boolean search);
+
+    abstract Builder contractionHierarchy(boolean ch);
+
+    abstract Builder outputFormat(TripFormat format);
+
+    abstract Builder sortedOutput(boolean sorted);
+
+    abstract Builder partitioning(Partitioning partitioning);
+
+    abstract Builder dispatchWindow(long window);
+
+    abstract Builder eventDriven(boolean events);
+
+    abstract Builder arrivalRates(@Nullable ArrivalRates rates);
+
+    abstract Builder demandThreads(int threads);
+
+    abstract SimulationConfig autoBuild();
+
+    SimulationConfig build() {
+      final SimulationConfig c = autoBuild();
+      checkArgument(c.numTaxis() >= 0, "numTaxis must be non-negative.");
+      checkArgument(c.numCustomers() >= 0,
+        "numCustomers must be non-negative.");
+      checkArgument(c.tickLength() > 0, "tickLength must be positive.");
+      checkArgument(c.endTime() > 0, "endTime must be positive.");
+      checkArgument(c.dispatchWindow() >= 0,
+        "dispatchWindow must be non-negative.");
+      checkArgument(c.demandThreads() >= 0,
+        "demandThreads must be non-negative.");
+      checkArgument(c.minDropoffDistance() <= c.maxDropoffDistance(),
+        "minDropoffDistance must not exceed maxDropoffDistance.");
+      return c;
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+
+import java.io.PrintStream;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.github.rinde.rinsim.geom.Point;
+import com.google.auto.value.AutoValue;
+
+/**
+ * Everything that belongs to a single run of {@link TaxiExample2}: its
+ * configuration, the allocation of trip ids, the table of trips that are
+ * picked up but not yet delivered and the sink the delivered trips are
+ * written to. Runs do not share any mutable state, so several runs can share
+ * one JVM and one graph (see {@link ReplicationRunner}). A context is confined
+ * to the thread that runs its simulation.
+ * @author Rinde van Lon
+ */
+final class SimulationContext {
+  private final SimulationConfig config;
+  private final TripSink sink;
+  @Nullable
+  private final PrintStream progress;
+  private final RouteStats routeStats;
+  // in order of pickup, so the first trip is the oldest
+  private final Map<Long, PendingTrip> pendingTrips;
+  @Nullable
+  private DistanceCache distanceCache;
+  @Nullable
+  private Dispatcher dispatcher;
+  private long nextTripId;
+  private long deliveredTrips;
+
+  /**
+   * @param configuration The configuration of the run.
+   * @param tripSink The sink that receives the trips, it is not closed by the
+   *          context.
+   * @param progressOutput The stream status and progress messages are written
+   *          to, or <code>null</code> to run silently.
+   */
+  SimulationContext(SimulationConfig configuration, TripSink tripSink,
+      @Nullable PrintStream progressOutput) {
+    config = checkNotNull(configuration);
+    sink = checkNotNull(tripSink);
+    progress = progressOutput;
+    routeStats = new RouteStats();
+    pendingTrips = newLinkedHashMap();
+  }
+
+  SimulationConfig config() {
+    return config;
+  }
+
+  RouteStats routeStats() {
+    return routeStats;
+  }
+
+  DistanceCache distanceCache() {
+    checkState(distanceCache != null, "The distance cache is not set.");
+    return distanceCache;
+  }
+
+  void setDistanceCache(DistanceCache cache) {
+    distanceCache = checkNotNull(cache);
+  }
+
+  /**
+   * @return The dispatcher that assigns customers to taxis.
+   */
+  Dispatcher dispatcher() {
+    checkState(dispatcher != null, "The dispatcher is not set.");
+    return dispatcher;
+  }
+
+  void setDispatcher(Dispatcher d) {
+    dispatcher = checkNotNull(d);
+  }
+
+  /**
+   * Assigns the next trip id to the customer that a taxi picked up and
+   * remembers the pickup until the customer is delivered. Ids are consecutive
+   * starting at 0, in order of pickup.
+   * @param taxiId The id of the taxi that picked up a customer.
+   * @param time The time of the pickup.
+   * @param position The position of the pickup.
+   */
+  void pickedUp(long taxiId, long time, Point position) {
+    pendingTrips.put(taxiId,
+      PendingTrip.create(nextTripId++, taxiId, time, position));
+  }
+
+  /**
+   * Completes the trip of a taxi and passes it to the sink.
+   * @param taxiId The id of the taxi that delivered its customer.
+   * @param time The time of the delivery.
+   * @param position The position of the delivery.
+   * @param distance The shortest path distance of the trip.
+   */
+  void delivered(long taxiId, long time, Point position, double distance) {
+    final PendingTrip p = pendingTrips.remove(taxiId);
+    checkState(p != null, "Taxi %s did not pick up a customer.", taxiId);
+    sink.trip(p.tripId(), p.taxiId(), p.time(), p.position(), time, position,
+      distance);
+    deliveredTrips++;
+  }
+
+  /**
+   * Passes the watermark to the sink at the end of a tick: trips that are
+   * delivered later were either picked up already, not before the oldest
+   * pending pickup, or will be picked up after the tick.
+   * @param endOfTick The end time of the tick.
+   */
+  void advance(long endOfTick) {
+    long watermark = endOfTick;
+    if (!pendingTrips.isEmpty()) {
+      watermark = Math.min(watermark,
+        pendingTrips.values().iterator().next().time());
+    }
+    sink.watermark(watermark);
+  }
+
+  /**
+   * @return The number of trips that were passed to the sink.
+   */
+  long deliveredTrips() {
+    return deliveredTrips;
+  }
+
+  /**
+   * Writes a status message if this context is not silent.
+   * @param message The message.
+   */
+  void status(String message) {
+    if (progress != null) {
+      progress.println(message);
+    }
+  }
+
+  /**
+   * Overwrites the current line with the progress of the simulation if this
+   * context is not silent.
+   * @param percentage The percentage of the simulated time that has passed.
+   */
+  void progress(long percentage) {
+    if (progress != null) {
+      progress.print("\r" + percentage + "%");
+    }
+  }
+
+  @AutoValue
+  abstract static class PendingTrip {
+    abstract long tripId();
+
+    abstract long taxiId();
+
+    abstract long time();
+
+    abstract Point position();
+
+    static PendingTrip create(long tripId, long taxiId, long time,
+        Point position) {
+      return new AutoValue_SimulationContext_PendingTrip(tripId, taxiId, time,
+        position);
+    }
+  }
+}
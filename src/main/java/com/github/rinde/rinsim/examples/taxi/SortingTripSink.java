@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import javax.annotation.Nullable;
+
+import com.github.rinde.rinsim.geom.Point;
+
+/**
+ * A {@link TripSink} that passes trips to another sink ordered by pickup time
+ * (ties by trip id) instead of by delivery time. Trips wait in a bounded
+ * binary heap until the {@link #watermark(long)} passes their pickup time, at
+ * which point no trip with an earlier pickup can arrive anymore.
+ * <p>
+ * When more than the maximum number of trips are waiting, e.g. because of a
+ * customer that is never delivered, the heap is written to a sorted run file
+ * and emptied. The runs are merged (k-way) with the heap at every watermark,
+ * so the trips picked up before the watermark are still passed on, and the
+ * watermark with them. At most {@link #MAX_FAN_IN} runs are open, before
+ * another run is written the existing runs are merged into one. The output is sorted in both cases, a run file is
+ * deleted as soon as all its trips are passed on.
+ * @author Rinde van Lon
+ */
+final class SortingTripSink implements TripSink {
+  static final int DEFAULT_MAX_BUFFERED = 1 << 20;
+  static final int INITIAL_CAPACITY = 1 << 10;
+  static final int RUN_BUFFER_SIZE = 1 << 16;
+  static final int MAX_FAN_IN = 64;
+
+  private final TripSink delegate;
+  private final int maxBuffered;
+  private final File runDirectory;
+  // cursors on the run files that still have trips, by their next trip
+  private final PriorityQueue<Run> runs;
+
+  // trips by slot
+  private long[] tripIds;
+  private long[] taxiIds;
+  private long[] pickupTimes;
+  private Point[] pickups;
+  private long[] deliveryTimes;
+  private Point[] deliveries;
+  private double[] distances;
+  // binary min heap of slots, the free slots are stored after the heap
+  private int[] heap;
+  private int size;
+
+  /**
+   * @param sink The sink that receives the trips in order of pickup.
+   * @param maximumBuffered The maximum number of trips kept in memory.
+   * @param directory The directory of the run files.
+   */
+  SortingTripSink(TripSink sink, int maximumBuffered, File directory) {
+    checkArgument(maximumBuffered > 0,
+      "maximumBuffered must be positive, found %s.", maximumBuffered);
+    delegate = checkNotNull(sink);
+    maxBuffered = maximumBuffered;
+    runDirectory = checkNotNull(directory);
+    runs = new PriorityQueue<Run>();
+    allocate(Math.min(INITIAL_CAPACITY, maximumBuffered));
+  }
+
+  @Override
+  public void trip(long tripId, long taxiId, long pickupTime, Point pickup,
+      long deliveryTime, Point delivery, double distance) {
+    if (size == maxBuffered) {
+      try {
+        spill();
+      } catch (final IOException e) {
+        throw new IllegalStateException(e);
+      }
+    } else if (size == heap.length) {
+      allocate(Math.min(heap.length * 2, maxBuffered));
+    }
+    final int slot = heap[size];
+    tripIds[slot] = tripId;
+    taxiIds[slot] = taxiId;
+    pickupTimes[slot] = pickupTime;
+    pickups[slot] = pickup;
+    deliveryTimes[slot] = deliveryTime;
+    deliveries[slot] = delivery;
+    distances[slot] = distance;
+    siftUp(size++);
+  }
+
+  @Override
+  public void watermark(long time) {
+    try {
+      emitBefore(time);
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+    // the trips that are still buffered or spilled are not picked up before
+    // the watermark either
+    delegate.watermark(time);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      emitBefore(Long.MAX_VALUE);
+    } finally {
+      for (final Run r : runs) {
+        r.close();
+      }
+      delegate.close();
+    }
+  }
+
+  // passes on the buffered and spilled trips picked up before time, in order
+  private void emitBefore(long time) throws IOException {
+    while (true) {
+      final boolean buffered = size > 0 && pickupTimes[heap[0]] < time;
+      final Run run = runs.peek();
+      final boolean spilled = run != null && run.pickupTime < time;
+      if (spilled && (!buffered || run.before(pickupTimes[heap[0]],
+        tripIds[heap[0]]))) {
+        runs.poll();
+        delegate.trip(run.tripId, run.taxiId, run.pickupTime, run.pickup,
+          run.deliveryTime, run.delivery, run.distance);
+        advance(run);
+      } else if (buffered) {
+        emit(poll());
+      } else {
+        return;
+      }
+    }
+  }
+
+  private void emit(int slot) {
+    delegate.trip(tripIds[slot], taxiIds[slot], pickupTimes[slot],
+      pickups[slot], deliveryTimes[slot], deliveries[slot], distances[slot]);
+    pickups[slot] = null;
+    deliveries[slot] = null;
+  }
+
+  // writes all buffered trips in order to a new run file, when there are too
+  // many runs they are merged into one first
+  private void spill() throws IOException {
+    if (runs.size() >= MAX_FAN_IN) {
+      final File merged = newRunFile();
+      final RunWriter out = new RunWriter(merged);
+      try {
+        while (!runs.isEmpty()) {
+          final Run r = runs.poll();
+          out.write(r.tripId, r.taxiId, r.pickupTime, r.pickup,
+            r.deliveryTime, r.delivery, r.distance);
+          advance(r);
+        }
+      } finally {
+        out.close();
+      }
+      advance(new Run(merged));
+    }
+    final File file = newRunFile();
+    final RunWriter out = new RunWriter(file);
+    try {
+      while (size > 0) {
+        final int slot = poll();
+        out.write(tripIds[slot], taxiIds[slot], pickupTimes[slot],
+          pickups[slot], deliveryTimes[slot], deliveries[slot],
+          distances[slot]);
+        pickups[slot] = null;
+        deliveries[slot] = null;
+      }
+    } finally {
+      out.close();
+    }
+    advance(new Run(file));
+  }
+
+  private File newRunFile() throws IOException {
+    return File.createTempFile("trips", ".run", runDirectory);
+  }
+
+  // moves the run to its next trip, an exhausted run is closed and deleted
+  private void advance(Run run) throws IOException {
+    if (run.next()) {
+      runs.add(run);
+    } else {
+      run.close();
+    }
+  }
+
+  // grows the slot arrays, new slots are appended to the free slots
+  private void allocate(int capacity) {
+    final int old = heap == null ? 0 : heap.length;
+    if (heap == null) {
+      tripIds = new long[capacity];
+      taxiIds = new long[capacity];
+      pickupTimes = new long[capacity];
+      pickups = new Point[capacity];
+      deliveryTimes = new long[capacity];
+      deliveries = new Point[capacity];
+      distances = new double[capacity];
+      heap = new int[capacity];
+    } else {
+      tripIds = Arrays.copyOf(tripIds, capacity);
+      taxiIds = Arrays.copyOf(taxiIds, capacity);
+      pickupTimes = Arrays.copyOf(pickupTimes, capacity);
+      pickups = Arrays.copyOf(pickups, capacity);
+      deliveryTimes = Arrays.copyOf(deliveryTimes, capacity);
+      deliveries = Arrays.copyOf(deliveries, capacity);
+      distances = Arrays.copyOf(distances, capacity);
+      heap = Arrays.copyOf(heap, capacity);
+    }
+    for (int i = old; i < capacity; i++) {
+      heap[i] = i;
+    }
+  }
+
+  // removes the first trip, its slot is moved to the free slots
+  private int poll() {
+    final int first = heap[0];
+    size--;
+    heap[0] = heap[size];
+    heap[size] = first;
+    if (size > 0) {
+      siftDown(0);
+    }
+    return first;
+  }
+
+  private boolean less(int a, int b) {
+    return pickupTimes[a] < pickupTimes[b]
+      || pickupTimes[a] == pickupTimes[b] && tripIds[a] < tripIds[b];
+  }
+
+  private void siftUp(int index) {
+    int i = index;
+    final int slot = heap[i];
+    while (i > 0) {
+      final int parent = (i - 1) >>> 1;
+      if (!less(slot, heap[parent])) {
+        break;
+      }
+      heap[i] = heap[parent];
+      i = parent;
+    }
+    heap[i] = slot;
+  }
+
+  private void siftDown(int index) {
+    int i = index;
+    final int slot = heap[i];
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && less(heap[child + 1], heap[child])) {
+        child++;
+      }
+      if (!less(heap[child], slot)) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = slot;
+  }
+
+  // sorted run file, one fixed size record per trip
+  static final class RunWriter {
+    private final DataOutputStream out;
+
+    RunWriter(File file) throws IOException {
+      out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file), RUN_BUFFER_SIZE));
+    }
+
+    void write(long tripId, long taxiId, long pickupTime, Point pickup,
+        long deliveryTime, Point delivery, double distance)
+        throws IOException {
+      out.writeLong(tripId);
+      out.writeLong(taxiId);
+      out.writeLong(pickupTime);
+      out.writeDouble(pickup.x);
+      out.writeDouble(pickup.y);
+      out.writeLong(deliveryTime);
+      out.writeDouble(delivery.x);
+      out.writeDouble(delivery.y);
+      out.writeDouble(distance);
+    }
+
+    void close() throws IOException {
+      out.close();
+    }
+  }
+
+  // cursor on a run file, the file is deleted when the cursor is closed
+  static final class Run implements Comparable<Run> {
+    private final File file;
+    private final DataInputStream in;
+    long tripId;
+    long taxiId;
+    long pickupTime;
+    @Nullable
+    Point pickup;
+    long deliveryTime;
+    @Nullable
+    Point delivery;
+    double distance;
+
+    Run(File f) throws IOException {
+      file = f;
+      in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(f), RUN_BUFFER_SIZE));
+    }
+
+    boolean next() throws IOException {
+      try {
+        tripId = in.readLong();
+      } catch (final EOFException e) {
+        return false;
+      }
+      taxiId = in.readLong();
+      pickupTime = in.readLong();
+      pickup = new Point(in.readDouble(), in.readDouble());
+      deliveryTime = in.readLong();
+      delivery = new Point(in.readDouble(), in.readDouble());
+      distance = in.readDouble();
+      return true;
+    }
+
+    void close() throws IOException {
+      try {
+        in.close();
+      } finally {
+        file.delete();
+      }
+    }
+
+    // true if the current trip comes before the specified trip
+    boolean before(long otherPickupTime, long otherTripId) {
+      return pickupTime < otherPickupTime
+        || pickupTime == otherPickupTime && tripId < otherTripId;
+    }
+
+    @Override
+    public int compareTo(Run o) {
+      if (pickupTime != o.pickupTime) {
+        return pickupTime < o.pickupTime ? -1 : 1;
+      }
+      return tripId < o.tripId ? -1 : tripId == o.tripId ? 0 : 1;
+    }
+  }
+}
@@ -21,20 +21,22 @@ import com.github.rinde.rinsim.core.model.pdp.Vehicle;
 import com.github.rinde.rinsim.core.model.pdp.VehicleDTO;
 import com.github.rinde.rinsim.core.model.road.MoveProgress;
 import com.github.rinde.rinsim.core.model.road.RoadModel;
-import com.github.rinde.rinsim.core.model.road.RoadModels;
 import com.github.rinde.rinsim.core.model.time.TimeLapse;
 import com.github.rinde.rinsim.geom.GeomHeuristics;
 import com.github.rinde.rinsim.geom.Point;
 import com.google.common.base.Optional;
-import java.util.Date;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import javax.annotation.Nullable;
 
 import javax.measure.Measure; 
 
 
 
 /**
- * Implementation of a very simple taxi agent. It moves to the closest customer,
- * picks it up, then delivers it, repeat.
+ * Implementation of a very simple taxi agent. It moves to the customer that
+ * the {@link Dispatcher} assigns to it, picks it up, then delivers it, repeat.
  *
  * @author Rinde van Lon
  */
@@ -44,8 +46,14 @@ class Taxi extends Vehicle {
   private static final double METER_TO_KM = 1/1000d;
   private Optional<Parcel> curr;
   private long taxiId;
+  private final SimulationContext context;
+  // memoized route to routeDestination, consumed while it is followed
+  @Nullable
+  private Point routeDestination;
+  private final Queue<Point> route;
 
-  Taxi(Point startPosition, int capacity, long id, double speed) {
+  Taxi(Point startPosition, int capacity, long id, double speed,
+      SimulationContext ctx) {
     super(VehicleDTO.builder()
       .capacity(capacity)
       .startPosition(startPosition)
@@ -53,6 +61,8 @@ class Taxi extends Vehicle {
       .build());
     curr = Optional.absent();
     taxiId = id;
+    context = ctx;
+    route = new LinkedList<Point>();
   }
 
   @Override
@@ -67,8 +77,8 @@ class Taxi extends Vehicle {
       return;
     }
     if (!curr.isPresent()) {
-      curr = Optional.fromNullable(RoadModels.findClosestObject(
-        rm.getPosition(this), rm, Parcel.class));
+      curr = Optional.fromNullable(
+        context.dispatcher().assign(taxiId, rm.getPosition(this)));
     }
 
     if (curr.isPresent()) {
@@ -77,46 +87,58 @@ class Taxi extends Vehicle {
       // RoadModel, we cannot go to curr anymore.
       if (!inCargo && !rm.containsObject(curr.get())) {
         curr = Optional.absent();
+        routeDestination = null;
       } else if (inCargo) {
         // if it is in cargo, go to its destination
-    	  MoveProgress mp = rm.moveTo(this, curr.get().getDeliveryLocation(), time);
+        moveTo(rm, curr.get().getDeliveryLocation(), time);
         if (rm.getPosition(this).equals(curr.get().getDeliveryLocation())) {
           // deliver when we arrive
           pm.deliver(this, curr.get(), time);
-          String deliverLine = TaxiExample2.SIMPLE_DATE_FORMAT.format(new Date(time.getTime())) + "," + 
-        		  toLat(rm.getPosition(this).y) + "," + toLon(rm.getPosition(this).x);
-          String distanceLine = rm.getDistanceOfPath(
-        		  rm.getShortestPathTo(
-        				  this.curr.get().getPickupLocation(),
-        				  this.curr.get().getDeliveryLocation()
-        				  )
-        		  ).getValue().toString();
-          if (distanceLine.equals("0.0"))
-      		System.out.println("NOOOO");
-    	  System.out.println(TaxiExample2.containerCurrentTripId.get(this) + "," + deliverLine + "," + distanceLine);
+          final double distance = context.distanceCache().getDistance(
+        		  this.curr.get().getPickupLocation(),
+        		  this.curr.get().getDeliveryLocation());
+    	  context.delivered(taxiId, time.getTime(), toLatLon(rm.getPosition(this)),
+    		  distance);
         }
       } else {
         // it is still available, go there as fast as possible
-        rm.moveTo(this, curr.get(), time);
+        moveTo(rm, rm.getPosition(curr.get()), time);
         if (rm.equalPosition(this, curr.get())) {
           // pickup customer
           pm.pickup(this, curr.get(), time);
-          String pickupLine = TaxiExample2.tripIndex + "," + this.taxiId + "," + 
-    			  TaxiExample2.SIMPLE_DATE_FORMAT.format(new Date(time.getTime())) + "," + 
-    			  toLat(rm.getPosition(this).y) + "," + toLon(rm.getPosition(this).x);
-          TaxiExample2.containerCurrentTripId.put(this, pickupLine);
-    	  TaxiExample2.tripIndex++;
+          context.dispatcher().pickedUp(curr.get());
+          context.pickedUp(taxiId, time.getTime(),
+            toLatLon(rm.getPosition(this)));
         }
       }
     }
   }
 
-	private double toLat(double y) {
+  // follows the route to the destination, the route is only computed when the
+  // destination differs from the previous one
+  private MoveProgress moveTo(RoadModel rm, Point destination,
+      TimeLapse time) {
+    if (!destination.equals(routeDestination)) {
+      route.clear();
+      route.addAll(rm.getShortestPathTo(this, destination));
+      routeDestination = destination;
+      context.routeStats().routeComputed();
+    }
+    context.routeStats().moved();
+    return rm.followPath(this, route, time);
+  }
+
+	// position in the coordinates of the trip output
+	static Point toLatLon(Point p) {
+		return new Point(toLon(p.x), toLat(p.y));
+	}
+
+	private static double toLat(double y) {
 //		return Math.toDegrees(  Math.atan(asinh(1.0 /Math.toRadians(y/ (scale * METER_TO_KM) ))));
 		return y;
 	}
 	
-	private double toLon(double x) {
+	private static double toLon(double x) {
 //		return x / METER_TO_KM / scale;
 		return x;
 	}
@@ -16,14 +16,15 @@
 package com.github.rinde.rinsim.examples.taxi;
 
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.Maps.newHashMap;
-import static com.google.common.collect.Maps.newLinkedHashMap;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nullable;
@@ -40,12 +41,14 @@ import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Monitor;
 
 import com.github.rinde.rinsim.core.Simulator;
-import com.github.rinde.rinsim.core.model.pdp.Container;
+import com.github.rinde.rinsim.core.model.ModelBuilder;
 import com.github.rinde.rinsim.core.model.pdp.DefaultPDPModel;
 import com.github.rinde.rinsim.core.model.pdp.Depot;
 import com.github.rinde.rinsim.core.model.pdp.PDPModel;
 import com.github.rinde.rinsim.core.model.pdp.Parcel;
 import com.github.rinde.rinsim.core.model.pdp.ParcelDTO;
+import com.github.rinde.rinsim.core.model.road.ContractedGraphRoadModel;
+import com.github.rinde.rinsim.core.model.road.GraphRoadModel;
 import com.github.rinde.rinsim.core.model.road.RoadModel;
 import com.github.rinde.rinsim.core.model.road.RoadModelBuilders;
 import com.github.rinde.rinsim.core.model.time.ClockController;
@@ -53,17 +56,24 @@ import com.github.rinde.rinsim.core.model.time.TickListener;
 import com.github.rinde.rinsim.core.model.time.TimeLapse;
 import com.github.rinde.rinsim.event.Listener;
 import com.github.rinde.rinsim.examples.taxi.TaxiRenderer.Language;
+import com.github.rinde.rinsim.geom.AbstractGraph;
+import com.github.rinde.rinsim.geom.ContractionHierarchy;
+import com.github.rinde.rinsim.geom.CsrGraph;
+import com.github.rinde.rinsim.geom.CsrGraphIO;
+import com.github.rinde.rinsim.geom.GaussianMixtureDemand;
 import com.github.rinde.rinsim.geom.Graph;
 import com.github.rinde.rinsim.geom.MultiAttributeData;
+import com.github.rinde.rinsim.geom.OsmGraphIO;
 import com.github.rinde.rinsim.geom.Point;
+import com.github.rinde.rinsim.geom.RandomNodeStrategies;
+import com.github.rinde.rinsim.geom.RandomNodeStrategy;
+import com.github.rinde.rinsim.geom.ReachableNodes;
 import com.github.rinde.rinsim.geom.io.DotGraphIO;
 import com.github.rinde.rinsim.geom.io.Filters;
 import com.github.rinde.rinsim.ui.View;
 import com.github.rinde.rinsim.ui.renderers.GraphRoadModelRenderer;
 import com.github.rinde.rinsim.ui.renderers.RoadUserRenderer;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat; 
 
 
 /**
@@ -76,32 +86,23 @@ import java.text.SimpleDateFormat;
  */
 public final class TaxiExample2 {
   
-  public static final DateFormat SIMPLE_DATE_FORMAT = new SimpleDateFormat("yyyyMMdd HH:mm:ss"); 
-  
-  public static Map<Container, String> containerCurrentTripId = newLinkedHashMap();
-  public static long tripIndex = 0;
-  private static long END_TIME = 24 * 60 * 60 * 1000L; //duration of simulation 
-
   private static final int NUM_DEPOTS = 0;
-  private static int NUM_TAXIS = 4; //number of taxi in the simulation 
-  private static int NUM_CUSTOMERS = 5; //initial number of customers 
   
-  private static long RANDOM_SEED = 123L;
-  private static long TICK_LENGTH = 1000L;//small ticking time --> takes too much time
   // time in ms
   private static final long SERVICE_DURATION = 60000;//pickup and deliver operation duration 
   private static final int TAXI_CAPACITY = 5; 
+  private static final double TAXI_SPEED = 180;//taxi initial speed is 180kh
   private static final int DEPOT_CAPACITY = 100;
 
   private static final int SPEED_UP = 4;
   private static final int MAX_CAPACITY = 3;
-  private static double NEW_CUSTOMER_PROB = .01;//probability to generate a new customer each time tick
 
 //  private static final String MAP_FILE = "/data/maps/leuven-simple.dot";
-  private static String MAP_FILE = "/home/abdu/eclipse-workspace/test1.dot";
-  private static PrintStream file_out, standard_out;
+  // shared by all runs in this JVM, loadGraph is synchronized
   private static final Map<String, Graph<MultiAttributeData>> GRAPH_CACHE =
     newHashMap();
+  // maximum number of origin-destination distances kept in memory
+  private static final long DISTANCE_CACHE_SIZE = 1000000L;
 
   private static final long TEST_STOP_TIME = 60 * 1000;
   private static final int TEST_SPEED_UP = 1;
@@ -110,40 +111,34 @@ public final class TaxiExample2 {
 
   /**
    * Starts the {@link TaxiExample2}.
-   * @param args The first option may optionally indicate the end time of the
-   *          simulation.
+   * @param args The map, the number of taxis, the initial number of
+   *          customers, the probability of a new customer per tick, the
+   *          duration in hours and the tick length in ms, optionally followed
+   *          by options such as <code>demand=uniform</code> or
+   *          <code>--ch</code> (see {@link SimulationConfig#parse(String...)}).
    */
   public static void main(@Nullable String[] args) {
 	  System.out.println("tripdatagenerator_v20200818");
-	  if (args.length == 6) {
-		  MAP_FILE = args[0];
-		  NUM_TAXIS = Integer.parseInt(args[1]);
-		  NUM_CUSTOMERS = Integer.parseInt(args[2]);
-		  NEW_CUSTOMER_PROB = Double.parseDouble(args[3]);
-		  END_TIME = Long.parseLong(args[4]) * 60 * 60 * 1000;
-		  TICK_LENGTH = Long.parseLong(args[5]);
-		  
-		}
+	  final SimulationConfig config = args != null && args.length >= 6
+		  ? SimulationConfig.parse(args)
+		  : SimulationConfig.builder().build();
 	  
-//    final long endTime = args != null && args.length >= 1 ? Long
-//      .parseLong(args[0]) : END_TIME;
-	  final long endTime = END_TIME;
-//
-//    final String graphFile = args != null && args.length >= 2 ? args[1]
-//      : MAP_FILE;
-	final String graphFile = MAP_FILE;
-	try {
-		file_out = new PrintStream(MAP_FILE+".csv");
-	} catch (FileNotFoundException e) {
-		// TODO Auto-generated catch block
-		e.printStackTrace();
-	}
-	standard_out = System.out;
+	final String graphFile = config.mapFile();
+	final TripSink trips = openTripSink(config, graphFile);
+	final SimulationContext context =
+		new SimulationContext(config, trips, System.out);
 	long startExcutionTime = System.currentTimeMillis();
-    run(false, endTime, graphFile, null /* new Display() */, null, null);
+    final Graph<MultiAttributeData> graph = prepareGraph(config);
+    try {
+      run(context, createRoadModel(graph, config));
+    } finally {
+      close(trips);
+    }
     long endExcutionTime = System.currentTimeMillis();
-    System.setOut(standard_out);
     System.out.println("\nexecution time (s) = " + ((endExcutionTime  - startExcutionTime )/1000) ); 
+    System.out.println(context.distanceCache());
+    System.out.println(context.routeStats());
+    System.out.println(context.dispatcher());
 
   }
 
@@ -152,7 +147,8 @@ public final class TaxiExample2 {
    * @param testing If <code>true</code> enables the test mode.
    */
   public static void run(boolean testing) {
-    run(testing, Long.MAX_VALUE, MAP_FILE, null, null, null);
+    run(testing, Long.MAX_VALUE, SimulationConfig.builder().build().mapFile(),
+      null, null, null);
   }
 
   /**
@@ -172,13 +168,38 @@ public final class TaxiExample2 {
 	  final View.Builder view = createGui(testing, display, m, list);
 
     // use map of leuven
+    final SimulationConfig config = SimulationConfig.builder()
+      .mapFile(graphFile)
+      .endTime(endTime)
+      .build();
+    final Graph<MultiAttributeData> graph = prepareGraph(config);
+    final TripSink trips = openTripSink(config, graphFile);
+    try {
+      return run(new SimulationContext(config, trips, System.out),
+        createRoadModel(graph, config));
+    } finally {
+      close(trips);
+    }
+  }
+
+  /**
+   * Runs one simulation. The road model builder, and the graph it is built
+   * on, may be shared with other, concurrent simulations, all state of the run
+   * is kept in its context.
+   * @param context The context of the run.
+   * @param roadModelBuilder The builder of the road model.
+   * @return The simulator instance.
+   */
+  static Simulator run(final SimulationContext context,
+      ModelBuilder<?, ?> roadModelBuilder) {
+    final SimulationConfig config = context.config();
     final Simulator simulator = Simulator.builder()
-      .addModel(RoadModelBuilders.staticGraph(loadGraph(graphFile)))
+      .addModel(roadModelBuilder)
 //    		.addModel(RoadModelBuilders.plane())
     		.addModel(DefaultPDPModel.builder())
 //      .setRandomGenerator(new GaussianRandomGenerator(new MersenneTwister(123L)))
-    		.setRandomSeed(RANDOM_SEED)
-    		.setTickLength(TICK_LENGTH)
+    		.setRandomSeed(config.randomSeed())
+    		.setTickLength(config.tickLength())
 //      .addModel(view)
       .build();
     final RandomGenerator rng = simulator.getRandomGenerator();
@@ -194,87 +215,199 @@ public final class TaxiExample2 {
 
     final RoadModel roadModel = simulator.getModelProvider().getModel(
       RoadModel.class);
+    context.setDistanceCache(new DistanceCache(roadModel, DISTANCE_CACHE_SIZE));
+    final GridIndex<Parcel> waiting = GridIndex.covering(
+      roadModel.get(GraphRoadModel.class).getGraph().getNodes());
+    if (config.dispatchWindow() > 0) {
+      // ticks before the taxis, so a batch is matched before they ask for it
+      final BatchDispatcher dispatcher =
+        new BatchDispatcher(waiting, config.dispatchWindow());
+      simulator.addTickListener(dispatcher);
+      context.setDispatcher(dispatcher);
+    } else {
+      context.setDispatcher(new NearestDispatcher(waiting));
+    }
     // add depots, taxis and parcels to simulator
     for (int i = 0; i < NUM_DEPOTS; i++) {
       simulator.register(new TaxiBase(roadModel.getRandomPosition(rng),
         DEPOT_CAPACITY));
     }
-    System.out.println("initialising " + NUM_TAXIS + " taxis...");
-    for (int i = 0; i < NUM_TAXIS; i++) {
-      simulator.register(new Taxi(roadModel.getRandomPosition(rng),
-        TAXI_CAPACITY, i, 180));//taxi initial speed is 180kh
+    context.status("initialising " + config.numTaxis() + " taxis...");
+    final List<Point> taxiPositions = new ArrayList<Point>();
+    for (int i = 0; i < config.numTaxis(); i++) {
+      taxiPositions.add(roadModel.getRandomPosition(rng));
     }
-    System.out.println("initialising " + NUM_CUSTOMERS + " customers...");
-    for (int i = 0; i < NUM_CUSTOMERS; i++) {
-    	Point pu_point = roadModel.getRandomPosition(rng);
-    	    	
-    	Point do_point = getFarAwayDO(rng, roadModel, pu_point);
-    	
-    	
-    
-    	simulator.register(new Customer(
-	        Parcel.builder(pu_point,
-	          do_point)
-	          .serviceDuration(SERVICE_DURATION)
-	          .neededCapacity(1 + rng.nextInt(MAX_CAPACITY))
-	          .buildDTO()));
+    context.status("initialising " + config.numCustomers() + " customers...");
+    final List<Customer> customers = new ArrayList<Customer>();
+    for (int i = 0; i < config.numCustomers(); i++) {
+      customers.add(newCustomer(context, rng, roadModel));
+    }
+    final DemandSource demand = openDemand(context, rng, roadModel);
+    try {
+      if (config.eventDriven()) {
+        final EventDrivenSimulation events =
+          new EventDrivenSimulation(context, simulator, demand, TAXI_SPEED);
+        for (final Point p : taxiPositions) {
+          events.addTaxi(p);
+        }
+        for (final Customer c : customers) {
+          events.addCustomer(c);
+        }
+        context.status("simulating events...");
+        events.run();
+      } else {
+        tick(context, simulator, demand, taxiPositions, customers);
+      }
+    } finally {
+      demand.close();
+    }
+    context.status("\n" + demand);
+    return simulator;
+  }
+
+  // the fixed-tick model, every taxi ticks every tick
+  private static void tick(final SimulationContext context,
+      final Simulator simulator, final DemandSource demand,
+      List<Point> taxiPositions, List<Customer> customers) {
+    final long endTime = context.config().endTime();
+    for (int i = 0; i < taxiPositions.size(); i++) {
+      simulator.register(new Taxi(taxiPositions.get(i), TAXI_CAPACITY, i,
+        TAXI_SPEED, context));
+    }
+    for (final Customer customer : customers) {
+      simulator.register(customer);
+      context.dispatcher().customerArrived(customer,
+        customer.getPickupLocation(), 0L);
     }
 
     simulator.addTickListener(new TickListener() {
       @Override
       public void tick(TimeLapse time) {
     	  if (time.getStartTime()% (endTime / 100) == 0) {
-    		  System.setOut(standard_out);
-    		  System.out.print("\r" + (time.getStartTime()*100 / endTime) +"%");
-    		  System.setOut(file_out);
+    		  context.progress(time.getStartTime()*100 / endTime);
     		  }
         if (time.getStartTime() > endTime) {
           simulator.stop();
-        } else if (rng.nextDouble() < NEW_CUSTOMER_PROB) {
-          //System.out.println("new customer");
-        	Point pu_point = roadModel.getRandomPosition(rng);
-        	Point do_point = getFarAwayDO(rng, roadModel, pu_point);
-        	simulator.register(new Customer(
-            Parcel
-              .builder(pu_point,
-            		  do_point)
-              .serviceDuration(SERVICE_DURATION)
-              .neededCapacity(1 + rng.nextInt(MAX_CAPACITY))
-              .buildDTO()));
+        } else {
+          // any number of customers may arrive in a tick
+          while (demand.nextArrival() < time.getEndTime()) {
+            final long arrival = demand.nextArrival();
+            final Customer customer = demand.next();
+            simulator.register(customer);
+            context.dispatcher().customerArrived(customer,
+              customer.getPickupLocation(), arrival);
+          }
         }
       }
 
       @Override
-      public void afterTick(TimeLapse timeLapse) {}
+      public void afterTick(TimeLapse timeLapse) {
+        context.advance(timeLapse.getEndTime());
+      }
     });
 
     
-    System.out.println("ticking...");
-    
-    System.setOut(file_out);
-    
-    System.out.println("tripId, taxiId, PU_timeStamp, PU_lat, PU_long, DO_timeStamp, DO_lat, DO_long, distance(km)");
+    context.status("ticking...");
 
     simulator.start();//if no GUI then clock.start() is called    
+  }
 
-    return simulator;
+  // the customers that arrive during the run, drawn on the simulation thread
+  // or pre-generated by background threads, see
+  // SimulationConfig.demandThreads()
+  static DemandSource openDemand(SimulationContext context,
+      RandomGenerator rng, RoadModel roadModel) {
+    if (context.config().demandThreads() == 0) {
+      return new SequentialDemand(context, rng, roadModel);
+    }
+    return new PipelinedDemand(context, roadModel,
+      context.config().demandThreads(), PipelinedDemand.DEFAULT_CAPACITY);
+  }
+
+  // draws the pickup, the dropoff and the size of a new customer, both
+  // simulation modes draw them in the same order from the same generator
+  static Customer newCustomer(SimulationContext context, RandomGenerator rng,
+      RoadModel roadModel) {
+    final Point pu_point = roadModel.getRandomPosition(rng);
+    final Point do_point = getFarAwayDO(context, rng, roadModel, pu_point);
+    return newCustomer(pu_point, do_point, randomSize(rng));
+  }
+
+  static Customer newCustomer(Point pickup, Point dropoff, int size) {
+    return new Customer(Parcel.builder(pickup, dropoff)
+      .serviceDuration(SERVICE_DURATION)
+      .neededCapacity(size)
+      .buildDTO());
+  }
+
+  // the capacity a customer needs
+  static int randomSize(RandomGenerator rng) {
+    return 1 + rng.nextInt(MAX_CAPACITY);
   }
 
-private static Point getFarAwayDO(final RandomGenerator rng, final RoadModel roadModel, Point pu_point) {
+private static Point getFarAwayDO(SimulationContext context, final RandomGenerator rng, final RoadModel roadModel, Point pu_point) {
+	if (context.config().boundedDropoffSearch()) {
+		return getFarAwayDOBySearch(context, rng, roadModel, pu_point);
+	}
 	Point do_point = roadModel.getRandomPosition(rng);
-	Double distance;
+	double distance;
 	do {
 		do_point = roadModel.getRandomPosition(rng);
-		distance = roadModel.getDistanceOfPath(
-				roadModel.getShortestPathTo(
-						pu_point,
-						do_point
-					  )
-			  ).getValue();
-	} while (distance < 1);
+		distance = context.distanceCache().getDistance(pu_point, do_point);
+	} while (distance < context.config().minDropoffDistance());
 	return do_point;
 }
 
+// one bounded Dijkstra from the pickup instead of a routing call per rejected
+// candidate, the dropoff is drawn uniformly from the nodes in range
+private static Point getFarAwayDOBySearch(SimulationContext context, final RandomGenerator rng, final RoadModel roadModel, Point pu_point) {
+	final ReachableNodes reachable = ReachableNodes.search(
+			roadModel.get(GraphRoadModel.class).getGraph(), pu_point,
+			context.config().maxDropoffDistance());
+	final int index = reachable.randomIndexAtLeast(
+			context.config().minDropoffDistance(), rng);
+	final Point do_point = reachable.node(index);
+	context.distanceCache().put(pu_point, do_point, reachable.distance(index));
+	return do_point;
+}
+
+  // trips are encoded and written by a background thread, see AsyncTripSink,
+  // which also opens and closes the partitions if the output is partitioned,
+  // when sorted output is requested they are first reordered on the
+  // simulation thread
+  static TripSink openTripSink(SimulationConfig config, String prefix) {
+    try {
+      final TripSink out = config.partitioning().isEnabled()
+        ? new PartitionedTripSink(config.outputFormat(), prefix,
+          config.partitioning(), config.sortedOutput())
+        : config.outputFormat().open(outputFile(config, prefix));
+      final TripSink sink = AsyncTripSink.create(out);
+      if (!config.sortedOutput()) {
+        return sink;
+      }
+      return new SortingTripSink(sink, SortingTripSink.DEFAULT_MAX_BUFFERED,
+        new File(prefix).getAbsoluteFile().getParentFile());
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // the file with the trips, or the manifest of the partitions
+  static File outputFile(SimulationConfig config, String prefix) {
+    return config.partitioning().isEnabled()
+      ? PartitionedTripSink.manifestFile(prefix)
+      : new File(prefix + config.outputFormat().extension());
+  }
+
+  // waits until all trips are written
+  static void close(TripSink sink) {
+    try {
+      sink.close();
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   static View.Builder createGui(
       boolean testing,
       @Nullable Display display,
@@ -311,8 +444,17 @@ private static Point getFarAwayDO(final RandomGenerator rng, final RoadModel roa
     return view;
   }
 
+  // loads the map file of the configuration and applies its demand model
+  static Graph<MultiAttributeData> prepareGraph(SimulationConfig config) {
+    final Graph<MultiAttributeData> graph = loadGraph(config.mapFile());
+    if (config.demandModel() != null) {
+      setDemandModel(graph, config.demandModel());
+    }
+    return graph;
+  }
+
   // load the graph file
-  static Graph<MultiAttributeData> loadGraph(String name) {
+  static synchronized Graph<MultiAttributeData> loadGraph(String name) {
     try {
       if (GRAPH_CACHE.containsKey(name)) {
         return GRAPH_CACHE.get(name);
@@ -322,10 +464,24 @@ private static Point getFarAwayDO(final RandomGenerator rng, final RoadModel roa
 //          Filters.selfCycleFilter())
 //        .read(
 //          TaxiExample.class.getResourceAsStream(name));
-      final Graph<MultiAttributeData> g = DotGraphIO
+      // the map (dot or OpenStreetMap file) is only parsed when its binary
+      // snapshot is missing or out of date, the parsed graph is only kept in
+      // its compact form
+      final File source = new File(name);
+      final long checksum = CsrGraphIO.checksum(source);
+      final File snapshot = CsrGraphIO.fileFor(source);
+      CsrGraph g = CsrGraphIO.read(snapshot, checksum);
+      if (g == null) {
+        if (name.endsWith(".osm") || name.endsWith(".osm.gz")) {
+          g = OsmGraphIO.create().read(source);
+        } else {
+          g = CsrGraph.copyOf(DotGraphIO
     	        .getMultiAttributeGraphIO(
     	          Filters.selfCycleFilter())
-    	        .read(new FileInputStream(new File(name)));
+    	        .read(new FileInputStream(source)));
+        }
+        CsrGraphIO.write(g, checksum, snapshot);
+      }
       GRAPH_CACHE.put(name, g);
       return g;
     } catch (final FileNotFoundException e) {
@@ -335,6 +491,50 @@ private static Point getFarAwayDO(final RandomGenerator rng, final RoadModel roa
     }
   }
 
+  // static road model on the graph, see
+  // SimulationConfig.contractionHierarchy()
+  static ModelBuilder<?, ?> createRoadModel(Graph<?> graph,
+      SimulationConfig config) {
+    if (!config.contractionHierarchy()) {
+      return RoadModelBuilders.staticGraph(graph);
+    }
+    try {
+      return ContractedGraphRoadModel.builder(graph,
+        ContractionHierarchy.loadOrBuild(graph, new File(config.mapFile())));
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // selects how getRandomPosition(..) draws nodes, see
+  // SimulationConfig.demandModel()
+  static void setDemandModel(Graph<?> graph, String model) {
+    checkArgument(graph instanceof AbstractGraph,
+      "A demand model requires an AbstractGraph, found %s.", graph.getClass());
+    final RandomNodeStrategy strategy;
+    if ("uniform".equals(model)) {
+      strategy = RandomNodeStrategies.uniform();
+    } else if ("gaussian".equals(model)) {
+      strategy = RandomNodeStrategies.gaussian();
+    } else {
+      try {
+        if (model.endsWith(".csv")) {
+          final String[] paths = model.split(File.pathSeparator);
+          final File[] files = new File[paths.length];
+          for (int i = 0; i < paths.length; i++) {
+            files[i] = new File(paths[i]);
+          }
+          strategy = EmpiricalDemand.load(files);
+        } else {
+          strategy = GaussianMixtureDemand.load(new File(model));
+        }
+      } catch (final IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    ((AbstractGraph<?>) graph).setRandomNodeStrategy(strategy);
+  }
+
   /**
    * A customer with very permissive time windows.
    */
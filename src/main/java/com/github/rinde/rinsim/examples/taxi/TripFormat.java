@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The encodings in which trips can be written.
+ * @author Rinde van Lon
+ */
+enum TripFormat {
+  /**
+   * Plain CSV, see {@link CsvTripSink}.
+   */
+  CSV("csv", ".csv") {
+    @Override
+    TripSink open(OutputStream out) {
+      return new CsvTripSink(out, TripRecordEncoder.create());
+    }
+  },
+  /**
+   * CSV compressed with gzip (deflate) while it is written.
+   */
+  CSV_GZIP("gzip", ".csv.gz") {
+    @Override
+    TripSink open(OutputStream out) throws IOException {
+      return new CsvTripSink(new GZIPOutputStream(out, STREAM_BUFFER_SIZE),
+        TripRecordEncoder.create());
+    }
+  },
+  /**
+   * The columnar binary format of {@link BinaryTripSink}, which can be read
+   * with {@link BinaryTripReader}.
+   */
+  BINARY("binary", BinaryTripSink.FILE_EXTENSION) {
+    @Override
+    TripSink open(OutputStream out) throws IOException {
+      return new BinaryTripSink(
+        new BufferedOutputStream(out, STREAM_BUFFER_SIZE));
+    }
+  };
+
+  static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+  private final String name;
+  private final String extension;
+
+  TripFormat(String formatName, String fileExtension) {
+    name = formatName;
+    extension = fileExtension;
+  }
+
+  /**
+   * @return The extension of files in this format, including the dot.
+   */
+  String extension() {
+    return extension;
+  }
+
+  /**
+   * Opens a sink that writes trips in this format.
+   * @param file The file, it is overwritten if it exists.
+   * @return The sink.
+   * @throws IOException if the file can not be created.
+   */
+  TripSink open(File file) throws IOException {
+    return open(new FileOutputStream(file));
+  }
+
+  /**
+   * Opens a sink that writes trips in this format to a stream.
+   * @param out The stream, it is closed when the sink is closed.
+   * @return The sink.
+   * @throws IOException if the stream can not be written to.
+   */
+  abstract TripSink open(OutputStream out) throws IOException;
+
+  /**
+   * @param formatName "csv", "gzip" or "binary".
+   * @return The format with the specified name.
+   * @throws IllegalArgumentException if there is no such format.
+   */
+  static TripFormat parse(String formatName) {
+    for (final TripFormat f : values()) {
+      if (f.name.equals(formatName)) {
+        return f;
+      }
+    }
+    throw new IllegalArgumentException("Unknown trip format: " + formatName
+      + ", expected csv, gzip or binary.");
+  }
+}
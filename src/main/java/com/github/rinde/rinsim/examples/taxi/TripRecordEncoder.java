@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import com.github.rinde.rinsim.geom.Point;
+
+/**
+ * Encodes trips as CSV records (see {@link CsvTripSink#HEADER}) directly into
+ * a byte array, without creating any objects per trip. Timestamps are
+ * formatted as <code>yyyyMMdd HH:mm:ss</code> in a time zone: the date is
+ * computed once per day and cached, the time of day is derived from the
+ * seconds since midnight. Coordinates and distances are written with a fixed
+ * number of decimals.
+ * <p>
+ * An encoder is not thread-safe.
+ * @author Rinde van Lon
+ */
+final class TripRecordEncoder {
+  /**
+   * The maximum number of bytes of one record.
+   */
+  static final int MAX_RECORD_BYTES = 512;
+  // 1e-7 degrees is the precision of OpenStreetMap coordinates (about 1 cm)
+  static final int COORDINATE_DECIMALS = 7;
+  // 1e-3 km, meter precision is more than enough for shortest path distances
+  static final int DISTANCE_DECIMALS = 3;
+
+  static final long MS_PER_SECOND = 1000L;
+  static final long MS_PER_DAY = 24 * 60 * 60 * MS_PER_SECOND;
+  static final int DATE_BYTES = 8;
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+  private static final byte[] NAN = "NaN".getBytes(ASCII);
+  private static final byte[] INFINITY = "Infinity".getBytes(ASCII);
+  private static final long[] POWERS_OF_TEN = new long[19];
+
+  static {
+    POWERS_OF_TEN[0] = 1L;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private final TimeZone timeZone;
+  private final Calendar calendar;
+  private final byte[] newLine;
+  private final int coordinateDecimals;
+  private final int distanceDecimals;
+  // yyyyMMdd of cachedDay
+  private final byte[] date;
+  private long cachedDay;
+  // scratch space for the digits of a long, least significant first
+  private final byte[] digits;
+
+  /**
+   * Creates an encoder.
+   * @param zone The time zone of the timestamps.
+   * @param lineSeparator The line separator, written after every record.
+   * @param coordinateDigits The number of decimals of coordinates.
+   * @param distanceDigits The number of decimals of distances.
+   */
+  TripRecordEncoder(TimeZone zone, String lineSeparator, int coordinateDigits,
+      int distanceDigits) {
+    checkArgument(coordinateDigits >= 0 && coordinateDigits <= 15,
+      "coordinateDigits must be in [0, 15], found %s.", coordinateDigits);
+    checkArgument(distanceDigits >= 0 && distanceDigits <= 15,
+      "distanceDigits must be in [0, 15], found %s.", distanceDigits);
+    timeZone = checkNotNull(zone);
+    calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+    newLine = lineSeparator.getBytes(ASCII);
+    coordinateDecimals = coordinateDigits;
+    distanceDecimals = distanceDigits;
+    date = new byte[DATE_BYTES];
+    cachedDay = Long.MIN_VALUE;
+    digits = new byte[20];
+  }
+
+  /**
+   * @return An encoder for the default time zone and line separator with the
+   *         default precision.
+   */
+  static TripRecordEncoder create() {
+    return new TripRecordEncoder(TimeZone.getDefault(),
+      System.getProperty("line.separator"), COORDINATE_DECIMALS,
+      DISTANCE_DECIMALS);
+  }
+
+  /**
+   * Writes one record, including the line separator. The array must have at
+   * least {@link #MAX_RECORD_BYTES} bytes left after <code>offset</code>.
+   * @param buffer The array to write to.
+   * @param offset The position of the first byte of the record.
+   * @param tripId The trip id.
+   * @param taxiId The taxi id.
+   * @param pickupTime The pickup time (ms).
+   * @param pickup The pickup position.
+   * @param deliveryTime The delivery time (ms).
+   * @param delivery The delivery position.
+   * @param distance The distance (km).
+   * @return The position after the record.
+   */
+  int encode(byte[] buffer, int offset, long tripId, long taxiId,
+      long pickupTime, Point pickup, long deliveryTime, Point delivery,
+      double distance) {
+    int p = offset;
+    p = putLong(buffer, p, tripId);
+    buffer[p++] = ',';
+    p = putLong(buffer, p, taxiId);
+    buffer[p++] = ',';
+    p = putTime(buffer, p, pickupTime);
+    buffer[p++] = ',';
+    p = putFixed(buffer, p, pickup.y, coordinateDecimals);
+    buffer[p++] = ',';
+    p = putFixed(buffer, p, pickup.x, coordinateDecimals);
+    buffer[p++] = ',';
+    p = putTime(buffer, p, deliveryTime);
+    buffer[p++] = ',';
+    p = putFixed(buffer, p, delivery.y, coordinateDecimals);
+    buffer[p++] = ',';
+    p = putFixed(buffer, p, delivery.x, coordinateDecimals);
+    buffer[p++] = ',';
+    p = putFixed(buffer, p, distance, distanceDecimals);
+    System.arraycopy(newLine, 0, buffer, p, newLine.length);
+    return p + newLine.length;
+  }
+
+  // yyyyMMdd HH:mm:ss
+  int putTime(byte[] buffer, int offset, long time) {
+    final long local = time + timeZone.getOffset(time);
+    final long day = floorDiv(local, MS_PER_DAY);
+    if (day != cachedDay) {
+      calendar.setTimeInMillis(day * MS_PER_DAY);
+      final int y = calendar.get(Calendar.YEAR);
+      put4(date, 0, y);
+      put2(date, 4, calendar.get(Calendar.MONTH) + 1);
+      put2(date, 6, calendar.get(Calendar.DAY_OF_MONTH));
+      cachedDay = day;
+    }
+    System.arraycopy(date, 0, buffer, offset, DATE_BYTES);
+    int p = offset + DATE_BYTES;
+    final int seconds = (int) ((local - day * MS_PER_DAY) / MS_PER_SECOND);
+    buffer[p++] = ' ';
+    put2(buffer, p, seconds / 3600);
+    p += 2;
+    buffer[p++] = ':';
+    put2(buffer, p, seconds / 60 % 60);
+    p += 2;
+    buffer[p++] = ':';
+    put2(buffer, p, seconds % 60);
+    return p + 2;
+  }
+
+  int putLong(byte[] buffer, int offset, long value) {
+    int p = offset;
+    if (value < 0) {
+      if (value == Long.MIN_VALUE) {
+        return putAscii(buffer, p, Long.toString(value));
+      }
+      buffer[p++] = '-';
+      return putDigits(buffer, p, -value);
+    }
+    return putDigits(buffer, p, value);
+  }
+
+  /**
+   * Writes a double rounded (half up) to a number of decimals, e.g.
+   * <code>25.130000000000003</code> with 7 decimals is written as
+   * <code>25.1300000</code>.
+   * @param buffer The array to write to.
+   * @param offset The position to write at.
+   * @param value The value.
+   * @param decimals The number of decimals.
+   * @return The position after the value.
+   */
+  int putFixed(byte[] buffer, int offset, double value, int decimals) {
+    if (Double.isNaN(value)) {
+      return put(buffer, offset, NAN);
+    }
+    int p = offset;
+    final double abs = Math.abs(value);
+    final long scale = POWERS_OF_TEN[decimals];
+    if (Double.isInfinite(value) || abs * scale >= Long.MAX_VALUE / 10) {
+      if (value < 0) {
+        buffer[p++] = '-';
+      }
+      if (Double.isInfinite(value)) {
+        return put(buffer, p, INFINITY);
+      }
+      // too large for fixed-point, only happens for nonsensical input
+      return putAscii(buffer, p, Double.toString(abs));
+    }
+    final long scaled = (long) (abs * scale + .5);
+    if (value < 0 && scaled != 0) {
+      buffer[p++] = '-';
+    }
+    p = putDigits(buffer, p, scaled / scale);
+    if (decimals > 0) {
+      buffer[p++] = '.';
+      long fraction = scaled % scale;
+      for (int i = p + decimals - 1; i >= p; i--) {
+        buffer[i] = (byte) ('0' + fraction % 10);
+        fraction /= 10;
+      }
+      p += decimals;
+    }
+    return p;
+  }
+
+  // non-negative value
+  private int putDigits(byte[] buffer, int offset, long value) {
+    long v = value;
+    int n = 0;
+    do {
+      digits[n++] = (byte) ('0' + v % 10);
+      v /= 10;
+    } while (v != 0);
+    int p = offset;
+    while (n > 0) {
+      buffer[p++] = digits[--n];
+    }
+    return p;
+  }
+
+  private static void put2(byte[] buffer, int offset, int value) {
+    buffer[offset] = (byte) ('0' + value / 10);
+    buffer[offset + 1] = (byte) ('0' + value % 10);
+  }
+
+  private static void put4(byte[] buffer, int offset, int value) {
+    put2(buffer, offset, value / 100);
+    put2(buffer, offset + 2, value % 100);
+  }
+
+  private static int put(byte[] buffer, int offset, byte[] bytes) {
+    System.arraycopy(bytes, 0, buffer, offset, bytes.length);
+    return offset + bytes.length;
+  }
+
+  private static int putAscii(byte[] buffer, int offset, String s) {
+    return put(buffer, offset, s.getBytes(ASCII));
+  }
+
+  private static long floorDiv(long x, long y) {
+    final long q = x / y;
+    return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.examples.taxi;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.github.rinde.rinsim.geom.Point;
+
+/**
+ * Receives the trips of a simulation in the order in which they are
+ * delivered. A sink belongs to a single run and is only called from the thread
+ * that runs it. The primitive parameters allow implementations to encode
+ * trips without allocating a record per trip.
+ * @author Rinde van Lon
+ */
+interface TripSink extends Closeable {
+
+  /**
+   * Receives a delivered trip.
+   * @param tripId The id of the trip, ids are assigned at pickup.
+   * @param taxiId The id of the taxi that made the trip.
+   * @param pickupTime The time of the pickup (ms).
+   * @param pickup The position of the pickup.
+   * @param deliveryTime The time of the delivery (ms).
+   * @param delivery The position of the delivery.
+   * @param distance The shortest path distance from pickup to delivery (km).
+   */
+  void trip(long tripId, long taxiId, long pickupTime, Point pickup,
+      long deliveryTime, Point delivery, double distance);
+
+  /**
+   * Promises that all trips that are received after this call have a pickup
+   * time of at least the watermark. Sinks that do not reorder trips can ignore
+   * it, see {@link SortingTripSink}.
+   * @param time The watermark (ms), watermarks never decrease.
+   */
+  void watermark(long time);
+
+  /**
+   * Writes any buffered trips and releases the underlying resources.
+   * @throws IOException if the trips can not be written.
+   */
+  @Override
+  void close() throws IOException;
+}
@@ -16,15 +16,13 @@
 package com.github.rinde.rinsim.geom;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
-import java.util.Set;
-
 import javax.annotation.Nullable;
 
 import org.apache.commons.math3.ml.distance.DistanceMeasure;
 import org.apache.commons.math3.random.RandomGenerator;
-import org.apache.commons.math3.util.MathArrays;
 
 import com.github.rinde.rinsim.examples.demo.factory.FactoryExample;
 import com.google.common.base.Optional;
@@ -40,6 +38,17 @@ import com.google.common.collect.ImmutableList;
 public abstract class AbstractGraph<E extends ConnectionData> implements
     Graph<E> {
 
+  // incremented on every structural change made through this class
+  private volatile long version;
+  // lazily built view on the nodes, see getNodeSnapshot()
+  @Nullable
+  private volatile NodeSnapshot nodeSnapshot;
+  // lazily built view on the connections, see getConnectionSnapshot()
+  @Nullable
+  private volatile ConnectionSnapshot<E> connectionSnapshot;
+  private volatile RandomNodeStrategy randomNodeStrategy =
+    RandomNodeStrategies.gaussian();
+
   /**
    * Create a new empty graph.
    */
@@ -96,6 +105,86 @@ public abstract class AbstractGraph<E extends ConnectionData> implements
     checkArgument(!hasConnection(from, to),
       "Connection already exists: %s -> %s ", from, to);
     doAddConnection(from, to, connData);
+    invalidateSnapshots();
+  }
+
+  /**
+   * Invalidates all cached views on this graph. Subclasses that change the
+   * structure of the graph without going through
+   * {@link #addConnection(Point, Point, Optional)} (e.g. when removing nodes
+   * or connections) should call this method. Removals that do not (e.g. those
+   * of the RinSim graphs) are detected when a removed node or connection is
+   * drawn from a snapshot, see {@link #getRandomNode(RandomGenerator)}.
+   */
+  protected void invalidateSnapshots() {
+    version++;
+    nodeSnapshot = null;
+    connectionSnapshot = null;
+  }
+
+  /**
+   * @return The current version of this graph, incremented on every change
+   *         that invalidates the snapshots.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns an immutable, indexed view on the current nodes of this graph. The
+   * snapshot is built on first use and cached until the version of the graph
+   * changes (see {@link #invalidateSnapshots()}), so using it is O(1). It may
+   * still contain nodes that were removed without invalidating it.
+   * @return The snapshot of the nodes.
+   * @throws IllegalStateException if the graph is empty.
+   */
+  public NodeSnapshot getNodeSnapshot() {
+    NodeSnapshot snapshot = nodeSnapshot;
+    final long v = version;
+    if (snapshot == null || snapshot.version() != v) {
+      checkState(!isEmpty(), "Can not create a snapshot of an empty graph.");
+      snapshot = new NodeSnapshot(getNodes(), v);
+      nodeSnapshot = snapshot;
+    }
+    return snapshot;
+  }
+
+  /**
+   * Returns an immutable, indexed view on the current connections of this
+   * graph. The snapshot is built on first use and cached until the version of
+   * the graph changes (see {@link #invalidateSnapshots()}). It may still
+   * contain connections that were removed without invalidating it.
+   * @return The snapshot of the connections.
+   * @throws IllegalStateException if the graph is empty.
+   */
+  public ConnectionSnapshot<E> getConnectionSnapshot() {
+    ConnectionSnapshot<E> snapshot = connectionSnapshot;
+    final long v = version;
+    if (snapshot == null || snapshot.version() != v) {
+      checkState(!isEmpty(),
+        "Can not create a snapshot of an empty graph.");
+      snapshot = new ConnectionSnapshot<E>(getConnections(), v);
+      connectionSnapshot = snapshot;
+    }
+    return snapshot;
+  }
+
+  /**
+   * Finds the node of this graph that is closest (euclidean distance in
+   * coordinate space) to the specified coordinate.
+   * @param x The x coordinate.
+   * @param y The y coordinate.
+   * @return The nearest node.
+   */
+  public Point getNearestNode(double x, double y) {
+    checkState(!isEmpty(), "Can not find a nearest node in an empty graph.");
+    final Point nearest = getNodeSnapshot().nearest(x, y);
+    if (containsNode(nearest)) {
+      return nearest;
+    }
+    // removed without invalidating the snapshot
+    invalidateSnapshots();
+    return getNodeSnapshot().nearest(x, y);
   }
 
   /**
@@ -119,148 +208,73 @@ public abstract class AbstractGraph<E extends ConnectionData> implements
   @Override
   public abstract int hashCode();
 
+  /**
+   * {@inheritDoc} The node is drawn from the snapshot of the nodes (see
+   * {@link #getNodeSnapshot()}), when it was removed from the graph the
+   * snapshot is rebuilt and another node is drawn.
+   */
   @Override
   public Point getRandomNode(RandomGenerator generator) {//me
 	  checkState(!isEmpty(), "Can not find a random node in an empty graph.");
-	  return getRandomNodeWithGaussian(generator);
-
-	  //    final int idx = (int) (gnrX * (nodes.size()-1));
-	  //    int index = 0;
-	  //    for (final Point point : nodes) {
-	  //      if (idx == index++) {
-	  //        return point;
-	  //      }
-	  //    }
-	  //    
-	  //    throw new IllegalStateException();
-  }
-
-
-
-  private Point getRandomNodeWithUniform(RandomGenerator generator)  
-  {
-	  final Set<Point> nodes = getNodes();
-	  final int idx = generator.nextInt(nodes.size());
-	  int index = 0;
-	  for (final Point point : nodes) {
-		  if (idx == index++) {
-			  return point;
-		  }
+	  final Point node = randomNodeStrategy.sample(getNodeSnapshot(), generator);
+	  if (containsNode(node)) {
+		  return node;
 	  }
-	  throw new IllegalStateException();
+	  invalidateSnapshots();
+	  return randomNodeStrategy.sample(getNodeSnapshot(), generator);
   }
 
-  private Point getRandomNodeWithGaussian(RandomGenerator generator) {
-	  final Set<Point> nodes = getNodes();
-
-	  //get borders
-	  double xMin = Double.MAX_VALUE;
-	  double yMin = Double.MAX_VALUE;
-	  double xMax = Double.MIN_VALUE;
-	  double yMax = Double.MIN_VALUE;
-
-	  for (final Point p : nodes) {
-		  xMin = Math.min(xMin, p.x);
-		  yMin = Math.min(yMin, p.y);
-		  xMax = Math.max(xMax, p.x);
-		  yMax = Math.max(yMax, p.y);
-	  }
-
-
-	  double gnrX = generator.nextGaussian();
-	  double gnrY = generator.nextGaussian();
-	  
-	  final double upperBound = 10;
-	  
-	  while (gnrX<-upperBound || upperBound<gnrX) //consider only value within "varianceFactor" sigma 
-		  gnrX = generator.nextGaussian();
-	  gnrX = (gnrX + upperBound)/(2*upperBound); //rescale to [0,1]
-	  gnrX = gnrX * (xMax-xMin) + xMin; //rescale to [xMin,xMax]
-
-	  
-	  while (gnrY<-upperBound || upperBound<gnrY) //consider only value within "varianceFactor" sigma 
-		  gnrY = generator.nextGaussian();
-	  gnrY = (gnrY + upperBound)/(2*upperBound); //rescale to [0,1]
-	  gnrY = gnrY * (yMax-yMin) + yMin; //rescale to [yMin,yMax]
-
-	  Point targetPoint = new Point((xMin+xMax)/2, (yMin+yMax)/2);
-
-	  double minDistance = Double.MAX_VALUE;
-	  final double[] arrayGnrPoint = {gnrX,gnrY};
-	  for (final Point p : nodes) {
-		  final double[] arrayP = {p.x,p.y};
-		  double p_gnrP_Distance = MathArrays.distance(arrayP,arrayGnrPoint);
-		  if (p_gnrP_Distance<minDistance) {
-			  minDistance = p_gnrP_Distance;
-			  targetPoint = p;
-		  }
-	  }
-	  return targetPoint;
+  /**
+   * Changes the way {@link #getRandomNode(RandomGenerator)} draws nodes, by
+   * default {@link RandomNodeStrategies#gaussian()} is used.
+   * @param strategy The strategy to use from now on.
+   */
+  public void setRandomNodeStrategy(RandomNodeStrategy strategy) {
+    randomNodeStrategy = checkNotNull(strategy);
   }
 
-  private Point getRandomNodeWithGMM(RandomGenerator generator) {
-	  final Set<Point> nodes = getNodes();
-
-	  //get borders
-	  double xMin = Double.MAX_VALUE;
-	  double yMin = Double.MAX_VALUE;
-	  double xMax = Double.MIN_VALUE;
-	  double yMax = Double.MIN_VALUE;
-
-	  for (final Point p : nodes) {
-		  xMin = Math.min(xMin, p.x);
-		  yMin = Math.min(yMin, p.y);
-		  xMax = Math.max(xMax, p.x);
-		  yMax = Math.max(yMax, p.y);
-	  }
-
-
-	  double gnrX = generator.nextGmmPoint()[0];
-	  double gnrY = generator.nextGmmPoint()[1];
-	  
-	  final double upperBound = 10;
-	  
-	  while (gnrX<-upperBound || upperBound<gnrX) //consider only value within "varianceFactor" sigma 
-		  gnrX = generator.nextGaussian();
-	  gnrX = (gnrX + upperBound)/(2*upperBound); //rescale to [0,1]
-	  gnrX = gnrX * (xMax-xMin) + xMin; //rescale to [xMin,xMax]
-
-	  
-	  while (gnrY<-upperBound || upperBound<gnrY) //consider only value within "varianceFactor" sigma 
-		  gnrY = generator.nextGaussian();
-	  gnrY = (gnrY + upperBound)/(2*upperBound); //rescale to [0,1]
-	  gnrY = gnrY * (yMax-yMin) + yMin; //rescale to [yMin,yMax]
-	  
-	  Point targetPoint = new Point((xMin+xMax)/2, (yMin+yMax)/2);
-
-	  double minDistance = Double.MAX_VALUE;
-	  final double[] arrayGnrPoint = {gnrX,gnrY};
-	  for (final Point p : nodes) {
-		  final double[] arrayP = {p.x,p.y};
-		  double p_gnrP_Distance = MathArrays.distance(arrayP,arrayGnrPoint);
-		  if (p_gnrP_Distance<minDistance) {
-			  minDistance = p_gnrP_Distance;
-			  targetPoint = p;
-		  }
-	  }
-	  return targetPoint;
+  /**
+   * @return The strategy used by {@link #getRandomNode(RandomGenerator)}.
+   */
+  public RandomNodeStrategy getRandomNodeStrategy() {
+    return randomNodeStrategy;
   }
 
-
   @Override
   public Connection<E> getRandomConnection(
       RandomGenerator generator) {
     checkState(!isEmpty(),
       "Can not find a random connection in an empty graph.");
-    final Set<Connection<E>> conns = getConnections();
-    final int idx = generator.nextInt(conns.size());
-    int index = 0;
-    for (final Connection<E> conn : conns) {
-      if (idx == index++) {
-        return conn;
-      }
+    final Connection<E> c = getConnectionSnapshot().randomConnection(generator);
+    if (hasConnection(c.from(), c.to())) {
+      return c;
+    }
+    // removed without invalidating the snapshot
+    invalidateSnapshots();
+    return getConnectionSnapshot().randomConnection(generator);
+  }
+
+  /**
+   * Returns a random connection where the probability of each connection is
+   * proportional to its length. A position drawn uniformly on the returned
+   * connection is therefore uniformly distributed over the total length of
+   * the graph, rather than over the number of connections.
+   * @param generator The random generator to use.
+   * @return A random connection.
+   * @throws IllegalStateException if the graph is empty.
+   */
+  public Connection<E> getRandomConnectionByLength(
+      RandomGenerator generator) {
+    checkState(!isEmpty(),
+      "Can not find a random connection in an empty graph.");
+    final Connection<E> c =
+      getConnectionSnapshot().randomConnectionByLength(generator);
+    if (hasConnection(c.from(), c.to())) {
+      return c;
     }
-    throw new IllegalStateException();
+    // removed without invalidating the snapshot
+    invalidateSnapshots();
+    return getConnectionSnapshot().randomConnectionByLength(generator);
   }
 
   @Override
@@ -287,7 +301,9 @@ public abstract class AbstractGraph<E extends ConnectionData> implements
       Optional<E> connData) {
     checkArgument(hasConnection(from, to),
       "The connection %s->%s does not exist.", from, to);
-    return doChangeConnectionData(from, to, connData);
+    final Optional<E> old = doChangeConnectionData(from, to, connData);
+    invalidateSnapshots();
+    return old;
   }
 
   /**
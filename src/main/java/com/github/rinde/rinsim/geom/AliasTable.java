@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.geom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Walker alias table for sampling indices from a discrete distribution in
+ * constant time. The table is built once in <code>O(n)</code> (Vose's method)
+ * from a set of non-negative weights, afterwards every sample costs one
+ * {@link RandomGenerator#nextInt(int)} and one
+ * {@link RandomGenerator#nextDouble()} call. Instances are immutable and can be
+ * shared between threads.
+ * @author Rinde van Lon
+ */
+public final class AliasTable {
+  private final double[] probability;
+  private final int[] alias;
+
+  private AliasTable(double[] prob, int[] al) {
+    probability = prob;
+    alias = al;
+  }
+
+  /**
+   * Creates a new table, index <code>i</code> will be sampled with probability
+   * <code>weights[i] / sum(weights)</code>.
+   * @param weights The weights, must be non-negative and finite with a
+   *          positive sum.
+   * @return A new alias table.
+   */
+  public static AliasTable create(double[] weights) {
+    final int n = weights.length;
+    checkArgument(n > 0, "At least one weight is required.");
+    double sum = 0;
+    for (final double w : weights) {
+      checkArgument(w >= 0 && !Double.isInfinite(w),
+        "Weights must be non-negative and finite, found %s.", w);
+      sum += w;
+    }
+    checkArgument(sum > 0, "The sum of the weights must be positive.");
+
+    final double[] prob = new double[n];
+    final int[] al = new int[n];
+    final double[] scaled = new double[n];
+    final int[] small = new int[n];
+    final int[] large = new int[n];
+    int numSmall = 0;
+    int numLarge = 0;
+    for (int i = 0; i < n; i++) {
+      scaled[i] = weights[i] * n / sum;
+      if (scaled[i] < 1d) {
+        small[numSmall++] = i;
+      } else {
+        large[numLarge++] = i;
+      }
+    }
+    while (numSmall > 0 && numLarge > 0) {
+      final int s = small[--numSmall];
+      final int l = large[--numLarge];
+      prob[s] = scaled[s];
+      al[s] = l;
+      scaled[l] = scaled[l] + scaled[s] - 1d;
+      if (scaled[l] < 1d) {
+        small[numSmall++] = l;
+      } else {
+        large[numLarge++] = l;
+      }
+    }
+    // what remains is (up to rounding errors) exactly one
+    while (numLarge > 0) {
+      final int l = large[--numLarge];
+      prob[l] = 1d;
+      al[l] = l;
+    }
+    while (numSmall > 0) {
+      final int s = small[--numSmall];
+      prob[s] = 1d;
+      al[s] = s;
+    }
+    return new AliasTable(prob, al);
+  }
+
+  /**
+   * @return The number of indices in this table.
+   */
+  public int size() {
+    return probability.length;
+  }
+
+  /**
+   * Draws an index.
+   * @param generator The random generator to use.
+   * @return An index in <code>[0, size())</code>.
+   */
+  public int sample(RandomGenerator generator) {
+    final int i = generator.nextInt(probability.length);
+    return generator.nextDouble() < probability[i] ? i : alias[i];
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.geom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Collection;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Immutable, indexed view on the connections of a {@link Graph} at a certain
+ * version of that graph. Supports sampling a connection uniformly or
+ * proportionally to its length in constant time. Snapshots are created and
+ * cached by {@link AbstractGraph#getConnectionSnapshot()}.
+ * @author Rinde van Lon
+ * @param <E> The type of {@link ConnectionData} that is used at the
+ *          {@link Connection}s.
+ */
+public final class ConnectionSnapshot<E extends ConnectionData> {
+  private final long version;
+  private final Connection<E>[] connections;
+  // built on first use of randomConnectionByLength(..)
+  @Nullable
+  private volatile AliasTable lengthTable;
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  ConnectionSnapshot(Collection<Connection<E>> conns, long v) {
+    checkArgument(!conns.isEmpty(),
+      "Can not create a snapshot of no connections.");
+    version = v;
+    connections = conns.toArray(new Connection[conns.size()]);
+  }
+
+  /**
+   * @return The version of the graph this snapshot was taken of.
+   */
+  public long version() {
+    return version;
+  }
+
+  /**
+   * @return The number of connections.
+   */
+  public int size() {
+    return connections.length;
+  }
+
+  /**
+   * @param i The index of the connection, <code>0 &lt;= i &lt; size()</code>.
+   * @return The connection at the specified index.
+   */
+  public Connection<E> connection(int i) {
+    return connections[i];
+  }
+
+  /**
+   * Draws a connection uniformly at random.
+   * @param generator The random generator to use.
+   * @return A random connection.
+   */
+  public Connection<E> randomConnection(RandomGenerator generator) {
+    return connections[generator.nextInt(connections.length)];
+  }
+
+  /**
+   * Draws a connection with a probability proportional to its length, such
+   * that a position on the drawn connection is uniformly distributed over the
+   * total length of the graph.
+   * @param generator The random generator to use.
+   * @return A random connection.
+   */
+  public Connection<E> randomConnectionByLength(RandomGenerator generator) {
+    return connections[lengthTable().sample(generator)];
+  }
+
+  private AliasTable lengthTable() {
+    AliasTable table = lengthTable;
+    if (table == null) {
+      final double[] lengths = new double[connections.length];
+      for (int i = 0; i < connections.length; i++) {
+        lengths[i] = connections[i].getLength();
+      }
+      table = AliasTable.create(lengths);
+      lengthTable = table;
+    }
+    return table;
+  }
+}
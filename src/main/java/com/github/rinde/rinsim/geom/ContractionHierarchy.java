@@ -0,0 +1,902 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.geom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Contraction hierarchy of a static {@link Graph}, answers shortest path
+ * queries (cost is {@link Graph#connectionLength(Point, Point)}, the same cost
+ * that the road models use) with two small upward searches instead of a search
+ * over the entire graph.
+ * <p>
+ * Preprocessing ({@link #build(Graph)}) contracts the nodes one by one in order
+ * of increasing importance (edge difference plus the number of already
+ * contracted neighbors), adding a shortcut between two neighbors of the
+ * contracted node whenever a bounded local search finds no witness path that
+ * is at least as short. A query runs a bidirectional Dijkstra in which both
+ * searches only follow arcs towards more important nodes; shortcuts remember
+ * the node they bypass such that the resulting path is unpacked into the
+ * original nodes.
+ * <p>
+ * Preprocessing is relatively expensive, a hierarchy can therefore be written
+ * to and read from a compact binary file, see
+ * {@link #loadOrBuild(Graph, File)}. Instances are immutable and can be
+ * queried by multiple threads concurrently. The hierarchy is only valid as
+ * long as the graph is not modified.
+ * @author Rinde van Lon
+ */
+public final class ContractionHierarchy {
+  /**
+   * The file extension that {@link #loadOrBuild(Graph, File)} appends to the
+   * name of the graph file.
+   */
+  public static final String FILE_EXTENSION = ".ch";
+
+  static final int MAGIC = 0x52434831;
+  static final int FORMAT_VERSION = 1;
+  // witness searches give up after settling this many nodes, which at worst
+  // adds a superfluous shortcut, priorities are estimated with a smaller limit
+  static final int WITNESS_SETTLE_LIMIT = 500;
+  static final int ESTIMATE_SETTLE_LIMIT = 50;
+  static final int NO_MIDDLE = -1;
+
+  private final long sourceChecksum;
+  private final Point[] nodes;
+  private final Map<Point, Integer> indices;
+  // upward arcs in compressed sparse row format, the arcs of node v are at
+  // positions first[v] (inclusive) up to first[v + 1] (exclusive)
+  // forward: v -> target with rank(target) > rank(v)
+  private final Arcs forward;
+  // backward: target -> v with rank(target) > rank(v)
+  private final Arcs backward;
+  private final ThreadLocal<Query> queries;
+
+  ContractionHierarchy(long checksum, Point[] ns, Arcs fwd, Arcs bwd) {
+    sourceChecksum = checksum;
+    nodes = ns;
+    indices = new HashMap<Point, Integer>(ns.length * 2);
+    for (int i = 0; i < ns.length; i++) {
+      indices.put(ns[i], i);
+    }
+    forward = fwd;
+    backward = bwd;
+    queries = new ThreadLocal<Query>() {
+      @Override
+      protected Query initialValue() {
+        return new Query(nodes.length);
+      }
+    };
+  }
+
+  /**
+   * Contracts the specified graph.
+   * @param graph The graph, must not be modified afterwards.
+   * @return A new contraction hierarchy.
+   */
+  public static ContractionHierarchy build(Graph<?> graph) {
+    return build(graph, 0L);
+  }
+
+  static ContractionHierarchy build(Graph<?> graph, long checksum) {
+    return new Contractor(graph).contract(checksum);
+  }
+
+  /**
+   * Reads the hierarchy that belongs to the specified graph file from
+   * <code>source + ".ch"</code>. When that file does not exist, or when it
+   * was computed for a different version of the graph file or for a different
+   * graph, the hierarchy is built and the file is (re)written.
+   * @param graph The graph that was read from the source file.
+   * @param source The file the graph was read from.
+   * @return The contraction hierarchy of the graph.
+   * @throws IOException if the source file can not be read or the hierarchy
+   *           file can not be written.
+   */
+  public static ContractionHierarchy loadOrBuild(Graph<?> graph, File source)
+      throws IOException {
+    final long checksum = CsrGraphIO.checksum(source);
+    final File file = new File(source.getPath() + FILE_EXTENSION);
+    if (file.isFile()) {
+      final ContractionHierarchy ch = read(file);
+      if (ch != null && ch.sourceChecksum == checksum && ch.isOf(graph)) {
+        return ch;
+      }
+    }
+    final ContractionHierarchy ch = build(graph, checksum);
+    final File tmp = new File(file.getPath() + ".tmp");
+    final OutputStream out = new FileOutputStream(tmp);
+    try {
+      ch.write(out);
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(file)) {
+      file.delete();
+      if (!tmp.renameTo(file)) {
+        throw new IOException("Could not move " + tmp + " to " + file + ".");
+      }
+    }
+    return ch;
+  }
+
+  @Nullable
+  static ContractionHierarchy read(File file) throws IOException {
+    final InputStream in = new FileInputStream(file);
+    try {
+      return read(in);
+    } catch (final IllegalArgumentException e) {
+      // not a (compatible) hierarchy file, it will be overwritten
+      return null;
+    } catch (final EOFException e) {
+      // truncated file, it will be overwritten
+      return null;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Reads a hierarchy that was written by {@link #write(OutputStream)}.
+   * @param input The stream to read from, it is not closed.
+   * @return The hierarchy.
+   * @throws IOException if the stream can not be read.
+   * @throws IllegalArgumentException if the stream does not contain a
+   *           hierarchy in the current format.
+   */
+  public static ContractionHierarchy read(InputStream input)
+      throws IOException {
+    final DataInputStream in =
+      new DataInputStream(new BufferedInputStream(input));
+    checkArgument(in.readInt() == MAGIC, "Not a contraction hierarchy.");
+    final int version = in.readInt();
+    checkArgument(version == FORMAT_VERSION,
+      "Unsupported contraction hierarchy format: %s.", version);
+    final long checksum = in.readLong();
+    final int n = in.readInt();
+    checkArgument(n >= 0, "Invalid number of nodes: %s.", n);
+    final Point[] ns = new Point[n];
+    for (int i = 0; i < n; i++) {
+      ns[i] = new Point(in.readDouble(), in.readDouble());
+    }
+    final Arcs fwd = Arcs.read(in, n);
+    final Arcs bwd = Arcs.read(in, n);
+    return new ContractionHierarchy(checksum, ns, fwd, bwd);
+  }
+
+  /**
+   * Writes this hierarchy in a binary format.
+   * @param output The stream to write to, it is flushed but not closed.
+   * @throws IOException if the stream can not be written.
+   */
+  public void write(OutputStream output) throws IOException {
+    final DataOutputStream out =
+      new DataOutputStream(new BufferedOutputStream(output));
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeLong(sourceChecksum);
+    out.writeInt(nodes.length);
+    for (final Point p : nodes) {
+      out.writeDouble(p.x);
+      out.writeDouble(p.y);
+    }
+    forward.write(out);
+    backward.write(out);
+    out.flush();
+  }
+
+  /**
+   * @return The checksum of the graph file this hierarchy was computed for,
+   *         <code>0</code> if it was not computed for a file.
+   */
+  public long getSourceChecksum() {
+    return sourceChecksum;
+  }
+
+  /**
+   * @return The number of nodes.
+   */
+  public int getNumberOfNodes() {
+    return nodes.length;
+  }
+
+  /**
+   * @return The number of upward arcs (original connections and shortcuts).
+   */
+  public int getNumberOfArcs() {
+    return forward.size() + backward.size();
+  }
+
+  boolean isOf(Graph<?> graph) {
+    if (graph.getNumberOfNodes() != nodes.length) {
+      return false;
+    }
+    for (final Point p : nodes) {
+      if (!graph.containsNode(p)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Computes the length of the shortest path between two nodes.
+   * @param from The start node.
+   * @param to The end node.
+   * @return The length of the shortest path, or
+   *         {@link Double#POSITIVE_INFINITY} if there is no path.
+   */
+  public double distance(Point from, Point to) {
+    final Query q = queries.get();
+    q.run(indexOf(from), indexOf(to));
+    return q.best;
+  }
+
+  /**
+   * Computes the shortest path between two nodes.
+   * @param from The start node.
+   * @param to The end node.
+   * @return The nodes of the shortest path, including from and to.
+   * @throws PathNotFoundException if there is no path.
+   */
+  public List<Point> shortestPath(Point from, Point to) {
+    final int s = indexOf(from);
+    final int t = indexOf(to);
+    final Query q = queries.get();
+    q.run(s, t);
+    if (q.meet < 0) {
+      throw new PathNotFoundException(
+        "No path found from " + from + " to " + to + ".");
+    }
+    // the arcs of the upward paths s -> meet and meet <- t, possibly
+    // shortcuts, as (tail, head) pairs in path order
+    final IntStack arcs = new IntStack();
+    for (int v = q.meet; v != s; v = q.forwardParent[v]) {
+      arcs.push(q.forwardParent[v]);
+      arcs.push(v);
+    }
+    arcs.reverse();
+    for (int v = q.meet; v != t; v = q.backwardParent[v]) {
+      arcs.push(v);
+      arcs.push(q.backwardParent[v]);
+    }
+    final List<Point> path = new ArrayList<Point>();
+    path.add(nodes[s]);
+    final IntStack stack = new IntStack();
+    for (int i = 0; i < arcs.size; i += 2) {
+      unpack(arcs.values[i], arcs.values[i + 1], path, stack);
+    }
+    return path;
+  }
+
+  int indexOf(Point p) {
+    final Integer i = indices.get(p);
+    checkArgument(i != null, "%s is not a node of the hierarchy.", p);
+    return i;
+  }
+
+  // appends the nodes of the arc a -> b, excluding a, to the path
+  void unpack(int a, int b, List<Point> path, IntStack stack) {
+    stack.clear();
+    stack.push(a);
+    stack.push(b);
+    while (!stack.isEmpty()) {
+      final int head = stack.pop();
+      final int tail = stack.pop();
+      final int middle = middleOf(tail, head);
+      if (middle == NO_MIDDLE) {
+        path.add(nodes[head]);
+      } else {
+        // the first half is on top of the stack
+        stack.push(middle);
+        stack.push(head);
+        stack.push(tail);
+        stack.push(middle);
+      }
+    }
+  }
+
+  // the node bypassed by the arc a -> b, the arc is stored at the lower ranked
+  // of its two nodes
+  int middleOf(int a, int b) {
+    int i = forward.find(a, b);
+    if (i >= 0) {
+      return forward.middle[i];
+    }
+    i = backward.find(b, a);
+    checkArgument(i >= 0, "No arc from %s to %s.", nodes[a], nodes[b]);
+    return backward.middle[i];
+  }
+
+  final class Query {
+    final double[] forwardDistance;
+    final double[] backwardDistance;
+    final int[] forwardParent;
+    final int[] backwardParent;
+    final MinHeap forwardQueue;
+    final MinHeap backwardQueue;
+    final IntStack touched;
+    double best;
+    int meet;
+
+    Query(int n) {
+      forwardDistance = new double[n];
+      backwardDistance = new double[n];
+      Arrays.fill(forwardDistance, Double.POSITIVE_INFINITY);
+      Arrays.fill(backwardDistance, Double.POSITIVE_INFINITY);
+      forwardParent = new int[n];
+      backwardParent = new int[n];
+      forwardQueue = new MinHeap();
+      backwardQueue = new MinHeap();
+      touched = new IntStack();
+    }
+
+    void run(int s, int t) {
+      reset();
+      best = Double.POSITIVE_INFINITY;
+      meet = -1;
+      visit(forwardDistance, forwardParent, s, 0d, s);
+      forwardQueue.add(0d, s);
+      visit(backwardDistance, backwardParent, t, 0d, t);
+      backwardQueue.add(0d, t);
+
+      while (true) {
+        final boolean fwd = !forwardQueue.isEmpty()
+          && forwardQueue.peekKey() < best;
+        final boolean bwd = !backwardQueue.isEmpty()
+          && backwardQueue.peekKey() < best;
+        if (fwd && (!bwd
+          || forwardQueue.peekKey() <= backwardQueue.peekKey())) {
+          step(forwardQueue, forwardDistance, forwardParent,
+            backwardDistance, forward);
+        } else if (bwd) {
+          step(backwardQueue, backwardDistance, backwardParent,
+            forwardDistance, backward);
+        } else {
+          return;
+        }
+      }
+    }
+
+    void step(MinHeap queue, double[] dist, int[] parent, double[] otherDist,
+        Arcs arcs) {
+      final double d = queue.peekKey();
+      final int v = queue.poll();
+      if (d > dist[v]) {
+        return;
+      }
+      final double total = d + otherDist[v];
+      if (total < best) {
+        best = total;
+        meet = v;
+      }
+      for (int i = arcs.first[v]; i < arcs.first[v + 1]; i++) {
+        final int w = arcs.target[i];
+        final double nd = d + arcs.weight[i];
+        if (nd < dist[w]) {
+          visit(dist, parent, w, nd, v);
+          queue.add(nd, w);
+        }
+      }
+    }
+
+    void visit(double[] dist, int[] parent, int v, double d, int p) {
+      if (forwardDistance[v] == Double.POSITIVE_INFINITY
+        && backwardDistance[v] == Double.POSITIVE_INFINITY) {
+        touched.push(v);
+      }
+      dist[v] = d;
+      parent[v] = p;
+    }
+
+    void reset() {
+      while (!touched.isEmpty()) {
+        final int v = touched.pop();
+        forwardDistance[v] = Double.POSITIVE_INFINITY;
+        backwardDistance[v] = Double.POSITIVE_INFINITY;
+      }
+      forwardQueue.clear();
+      backwardQueue.clear();
+    }
+  }
+
+  // arcs of all nodes in compressed sparse row format
+  static final class Arcs {
+    final int[] first;
+    final int[] target;
+    final double[] weight;
+    final int[] middle;
+
+    Arcs(int[] f, int[] t, double[] w, int[] m) {
+      first = f;
+      target = t;
+      weight = w;
+      middle = m;
+    }
+
+    static Arcs create(DynamicArcs[] lists) {
+      final int n = lists.length;
+      final int[] f = new int[n + 1];
+      for (int v = 0; v < n; v++) {
+        f[v + 1] = f[v] + lists[v].size;
+      }
+      final int m = f[n];
+      final int[] t = new int[m];
+      final double[] w = new double[m];
+      final int[] mid = new int[m];
+      for (int v = 0; v < n; v++) {
+        final DynamicArcs l = lists[v];
+        System.arraycopy(l.target, 0, t, f[v], l.size);
+        System.arraycopy(l.weight, 0, w, f[v], l.size);
+        System.arraycopy(l.middle, 0, mid, f[v], l.size);
+      }
+      return new Arcs(f, t, w, mid);
+    }
+
+    int size() {
+      return target.length;
+    }
+
+    int find(int v, int to) {
+      for (int i = first[v]; i < first[v + 1]; i++) {
+        if (target[i] == to) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeInt(target.length);
+      for (final int f : first) {
+        out.writeInt(f);
+      }
+      for (int i = 0; i < target.length; i++) {
+        out.writeInt(target[i]);
+        out.writeDouble(weight[i]);
+        out.writeInt(middle[i]);
+      }
+    }
+
+    static Arcs read(DataInputStream in, int n) throws IOException {
+      final int m = in.readInt();
+      checkArgument(m >= 0, "Invalid number of arcs: %s.", m);
+      final int[] f = new int[n + 1];
+      for (int i = 0; i <= n; i++) {
+        f[i] = in.readInt();
+        checkArgument(f[i] >= 0 && f[i] <= m && (i == 0 || f[i] >= f[i - 1]),
+          "Corrupt arc offsets.");
+      }
+      checkArgument(f[n] == m, "Corrupt arc offsets.");
+      final int[] t = new int[m];
+      final double[] w = new double[m];
+      final int[] mid = new int[m];
+      for (int i = 0; i < m; i++) {
+        t[i] = in.readInt();
+        w[i] = in.readDouble();
+        mid[i] = in.readInt();
+        checkArgument(t[i] >= 0 && t[i] < n && mid[i] >= NO_MIDDLE
+          && mid[i] < n, "Corrupt arc %s.", i);
+      }
+      return new Arcs(f, t, w, mid);
+    }
+  }
+
+  // growable arc list of a single node, used during preprocessing
+  static final class DynamicArcs {
+    int[] target = new int[4];
+    double[] weight = new double[4];
+    int[] middle = new int[4];
+    int size;
+
+    // adds the arc or lowers the weight of an existing arc to the same node
+    void put(int to, double w, int mid) {
+      for (int i = 0; i < size; i++) {
+        if (target[i] == to) {
+          if (w < weight[i]) {
+            weight[i] = w;
+            middle[i] = mid;
+          }
+          return;
+        }
+      }
+      if (size == target.length) {
+        target = Arrays.copyOf(target, size * 2);
+        weight = Arrays.copyOf(weight, size * 2);
+        middle = Arrays.copyOf(middle, size * 2);
+      }
+      target[size] = to;
+      weight[size] = w;
+      middle[size] = mid;
+      size++;
+    }
+
+    int find(int to) {
+      for (int i = 0; i < size; i++) {
+        if (target[i] == to) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    void remove(int to) {
+      for (int i = 0; i < size; i++) {
+        if (target[i] == to) {
+          size--;
+          target[i] = target[size];
+          weight[i] = weight[size];
+          middle[i] = middle[size];
+          return;
+        }
+      }
+    }
+  }
+
+  // node contraction, all state is discarded once the hierarchy is created
+  static final class Contractor {
+    final Point[] nodes;
+    final DynamicArcs[] out;
+    final DynamicArcs[] in;
+    final DynamicArcs[] up;
+    final DynamicArcs[] down;
+    final boolean[] contracted;
+    final int[] contractedNeighbors;
+    final int[] level;
+    final int[] priority;
+    // witness search state
+    final double[] dist;
+    final IntStack touched;
+    final MinHeap queue;
+    // targets of the current witness search are marked with its stamp
+    final int[] targetStamp;
+    int stamp;
+    // shortcuts found by the last call to findShortcuts(..), as (from, to)
+    // pairs and weights
+    final IntStack shortcutEnds;
+    final DoubleStack shortcutWeights;
+
+    Contractor(Graph<?> graph) {
+      nodes = graph.getNodes().toArray(new Point[graph.getNumberOfNodes()]);
+      final int n = nodes.length;
+      final Map<Point, Integer> indices = new HashMap<Point, Integer>(n * 2);
+      for (int i = 0; i < n; i++) {
+        indices.put(nodes[i], i);
+      }
+      out = newLists(n);
+      in = newLists(n);
+      up = newLists(n);
+      down = newLists(n);
+      for (final Connection<?> c : graph.getConnections()) {
+        final int u = indices.get(c.from());
+        final int v = indices.get(c.to());
+        if (u != v) {
+          final double w = graph.connectionLength(c.from(), c.to());
+          out[u].put(v, w, NO_MIDDLE);
+          in[v].put(u, w, NO_MIDDLE);
+        }
+      }
+      contracted = new boolean[n];
+      contractedNeighbors = new int[n];
+      level = new int[n];
+      priority = new int[n];
+      dist = new double[n];
+      Arrays.fill(dist, Double.POSITIVE_INFINITY);
+      touched = new IntStack();
+      queue = new MinHeap();
+      targetStamp = new int[n];
+      shortcutEnds = new IntStack();
+      shortcutWeights = new DoubleStack();
+    }
+
+    static DynamicArcs[] newLists(int n) {
+      final DynamicArcs[] lists = new DynamicArcs[n];
+      for (int i = 0; i < n; i++) {
+        lists[i] = new DynamicArcs();
+      }
+      return lists;
+    }
+
+    ContractionHierarchy contract(long checksum) {
+      final int n = nodes.length;
+      final MinHeap order = new MinHeap();
+      for (int v = 0; v < n; v++) {
+        priority[v] = computePriority(v);
+        order.add(priority[v], v);
+      }
+      while (!order.isEmpty()) {
+        final double key = order.peekKey();
+        final int v = order.poll();
+        if (contracted[v] || key != priority[v]) {
+          continue;
+        }
+        // lazy update: the priority may have grown since it was computed
+        priority[v] = computePriority(v);
+        if (!order.isEmpty() && priority[v] > order.peekKey()) {
+          order.add(priority[v], v);
+          continue;
+        }
+        contractNode(v);
+        // neighbors get a new priority, the old heap entries become stale
+        for (int i = 0; i < out[v].size; i++) {
+          updateNeighbor(order, out[v].target[i]);
+        }
+        for (int i = 0; i < in[v].size; i++) {
+          updateNeighbor(order, in[v].target[i]);
+        }
+        out[v].size = 0;
+        in[v].size = 0;
+      }
+      return new ContractionHierarchy(checksum, nodes, Arcs.create(up),
+        Arcs.create(down));
+    }
+
+    void updateNeighbor(MinHeap order, int w) {
+      if (!contracted[w]) {
+        priority[w] = computePriority(w);
+        order.add(priority[w], w);
+      }
+    }
+
+    int computePriority(int v) {
+      final int shortcuts = findShortcuts(v, ESTIMATE_SETTLE_LIMIT);
+      return 2 * (shortcuts - out[v].size - in[v].size)
+        + contractedNeighbors[v] + level[v];
+    }
+
+    void contractNode(int v) {
+      findShortcuts(v, WITNESS_SETTLE_LIMIT);
+      contracted[v] = true;
+      // remaining arcs all lead to more important nodes
+      final DynamicArcs o = out[v];
+      for (int i = 0; i < o.size; i++) {
+        up[v].put(o.target[i], o.weight[i], o.middle[i]);
+        in[o.target[i]].remove(v);
+        contractedNeighbors[o.target[i]]++;
+        level[o.target[i]] = Math.max(level[o.target[i]], level[v] + 1);
+      }
+      final DynamicArcs inc = in[v];
+      for (int i = 0; i < inc.size; i++) {
+        down[v].put(inc.target[i], inc.weight[i], inc.middle[i]);
+        out[inc.target[i]].remove(v);
+        if (o.find(inc.target[i]) < 0) {
+          contractedNeighbors[inc.target[i]]++;
+        }
+        level[inc.target[i]] = Math.max(level[inc.target[i]], level[v] + 1);
+      }
+      for (int i = 0; i < shortcutWeights.size; i++) {
+        final int from = shortcutEnds.values[2 * i];
+        final int to = shortcutEnds.values[2 * i + 1];
+        out[from].put(to, shortcutWeights.values[i], v);
+        in[to].put(from, shortcutWeights.values[i], v);
+      }
+    }
+
+    // computes the shortcuts that contracting v requires, they are stored in
+    // shortcutEnds and shortcutWeights
+    int findShortcuts(int v, int settleLimit) {
+      shortcutEnds.clear();
+      shortcutWeights.clear();
+      final DynamicArcs inc = in[v];
+      final DynamicArcs o = out[v];
+      for (int i = 0; i < inc.size; i++) {
+        final int u = inc.target[i];
+        final double wu = inc.weight[i];
+        double limit = Double.NEGATIVE_INFINITY;
+        int targets = 0;
+        stamp++;
+        for (int j = 0; j < o.size; j++) {
+          if (o.target[j] != u) {
+            limit = Math.max(limit, wu + o.weight[j]);
+            targetStamp[o.target[j]] = stamp;
+            targets++;
+          }
+        }
+        if (targets == 0) {
+          continue;
+        }
+        witnessSearch(u, v, limit, targets, settleLimit);
+        for (int j = 0; j < o.size; j++) {
+          final int x = o.target[j];
+          final double via = wu + o.weight[j];
+          if (x != u && dist[x] > via) {
+            shortcutEnds.push(u);
+            shortcutEnds.push(x);
+            shortcutWeights.push(via);
+          }
+        }
+      }
+      return shortcutWeights.size;
+    }
+
+    // bounded Dijkstra from source that avoids the node being contracted, it
+    // stops once all marked targets are settled, the distances are left in
+    // dist until the next search
+    void witnessSearch(int source, int avoid, double limit, int targets,
+        int settleLimit) {
+      while (!touched.isEmpty()) {
+        dist[touched.pop()] = Double.POSITIVE_INFINITY;
+      }
+      queue.clear();
+      dist[source] = 0d;
+      touched.push(source);
+      queue.add(0d, source);
+      int settled = 0;
+      while (!queue.isEmpty() && settled < settleLimit) {
+        final double d = queue.peekKey();
+        final int v = queue.poll();
+        if (d > dist[v]) {
+          continue;
+        }
+        if (d > limit) {
+          return;
+        }
+        settled++;
+        if (targetStamp[v] == stamp && --targets == 0) {
+          return;
+        }
+        final DynamicArcs arcs = out[v];
+        for (int i = 0; i < arcs.size; i++) {
+          final int w = arcs.target[i];
+          final double nd = d + arcs.weight[i];
+          if (w != avoid && nd < dist[w]) {
+            if (dist[w] == Double.POSITIVE_INFINITY) {
+              touched.push(w);
+            }
+            dist[w] = nd;
+            queue.add(nd, w);
+          }
+        }
+      }
+    }
+  }
+
+  // binary min heap of (key, value) pairs, decrease-key is done by inserting
+  // a new pair and skipping stale pairs when they are polled
+  static final class MinHeap {
+    double[] keys = new double[16];
+    int[] values = new int[16];
+    int size;
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+    double peekKey() {
+      return keys[0];
+    }
+
+    void add(double key, int value) {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      int i = size++;
+      while (i > 0) {
+        final int parent = (i - 1) >>> 1;
+        if (keys[parent] <= key) {
+          break;
+        }
+        keys[i] = keys[parent];
+        values[i] = values[parent];
+        i = parent;
+      }
+      keys[i] = key;
+      values[i] = value;
+    }
+
+    int poll() {
+      final int result = values[0];
+      size--;
+      final double key = keys[size];
+      final int value = values[size];
+      int i = 0;
+      while (true) {
+        int child = 2 * i + 1;
+        if (child >= size) {
+          break;
+        }
+        if (child + 1 < size && keys[child + 1] < keys[child]) {
+          child++;
+        }
+        if (key <= keys[child]) {
+          break;
+        }
+        keys[i] = keys[child];
+        values[i] = values[child];
+        i = child;
+      }
+      keys[i] = key;
+      values[i] = value;
+      return result;
+    }
+  }
+
+  static final class IntStack {
+    int[] values = new int[16];
+    int size;
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    void clear() {
+      size = 0;
+    }
+
+    void push(int v) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = v;
+    }
+
+    int pop() {
+      return values[--size];
+    }
+
+    // reverses the order of the pairs on the stack
+    void reverse() {
+      for (int i = 0, j = size - 2; i < j; i += 2, j -= 2) {
+        final int a = values[i];
+        final int b = values[i + 1];
+        values[i] = values[j];
+        values[i + 1] = values[j + 1];
+        values[j] = a;
+        values[j + 1] = b;
+      }
+    }
+  }
+
+  static final class DoubleStack {
+    double[] values = new double[16];
+    int size;
+
+    void clear() {
+      size = 0;
+    }
+
+    void push(double v) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = v;
+    }
+  }
+}
@@ -0,0 +1,588 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.geom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Immutable {@link Graph} of {@link MultiAttributeData} connections stored in
+ * compressed sparse row (CSR) format. Nodes are identified by an int id, the
+ * outgoing connections of node <code>i</code> are stored at positions
+ * <code>first[i]</code> (inclusive) up to <code>first[i + 1]</code>
+ * (exclusive) of the primitive target, length and maximum speed arrays. Points
+ * are mapped to ids by a primitive open addressing table, so lookups do not
+ * allocate and adjacency lists are contiguous in memory.
+ * <p>
+ * Only the length and the maximum speed of connections are kept, any other
+ * attributes of the original connection data are dropped. The order of the
+ * nodes and of the outgoing connections of each node is that of the original
+ * graph, such that searches on both graphs break ties in the same way.
+ * <p>
+ * All methods that modify the graph throw an
+ * {@link UnsupportedOperationException}.
+ * @author Rinde van Lon
+ */
+public final class CsrGraph extends AbstractGraph<MultiAttributeData> {
+  static final int EMPTY = -1;
+
+  private final Point[] points;
+  private final double[] xs;
+  private final double[] ys;
+  private final int[] first;
+  private final int[] targets;
+  private final double[] lengths;
+  private final double[] maxSpeeds;
+  // reverse adjacency, incoming connection of node i are from the nodes at
+  // positions inFirst[i] up to inFirst[i + 1] of sources
+  private final int[] inFirst;
+  private final int[] sources;
+  // open addressing point -> id table, EMPTY marks a free slot
+  private final int[] table;
+  private final int mask;
+  private volatile int hashCode;
+
+  /**
+   * Creates a graph from its CSR arrays, the arrays are not copied.
+   * @param xCoords The x coordinate of each node.
+   * @param yCoords The y coordinate of each node.
+   * @param firstArc The index of the first outgoing arc of each node, has one
+   *          more element than there are nodes.
+   * @param arcTargets The target node of each arc.
+   * @param arcLengths The length of each arc, {@link Double#NaN} if unknown.
+   * @param arcMaxSpeeds The maximum speed on each arc, {@link Double#NaN} if
+   *          unknown.
+   */
+  CsrGraph(double[] xCoords, double[] yCoords, int[] firstArc,
+      int[] arcTargets, double[] arcLengths, double[] arcMaxSpeeds) {
+    final int n = xCoords.length;
+    final int m = arcTargets.length;
+    checkArgument(yCoords.length == n && firstArc.length == n + 1,
+      "Node arrays must have matching lengths.");
+    checkArgument(arcLengths.length == m && arcMaxSpeeds.length == m
+      && firstArc[n] == m, "Arc arrays must have matching lengths.");
+    xs = xCoords;
+    ys = yCoords;
+    first = firstArc;
+    targets = arcTargets;
+    lengths = arcLengths;
+    maxSpeeds = arcMaxSpeeds;
+
+    points = new Point[n];
+    int capacity = 2;
+    while (capacity < 2 * n) {
+      capacity <<= 1;
+    }
+    table = new int[capacity];
+    Arrays.fill(table, EMPTY);
+    mask = capacity - 1;
+    for (int i = 0; i < n; i++) {
+      points[i] = new Point(xs[i], ys[i]);
+      int slot = slot(points[i]);
+      while (table[slot] != EMPTY) {
+        checkArgument(!points[table[slot]].equals(points[i]),
+          "Duplicate node: %s.", points[i]);
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = i;
+    }
+
+    inFirst = new int[n + 1];
+    for (int a = 0; a < m; a++) {
+      checkArgument(targets[a] >= 0 && targets[a] < n,
+        "Invalid arc target: %s.", targets[a]);
+      inFirst[targets[a] + 1]++;
+    }
+    for (int i = 0; i < n; i++) {
+      inFirst[i + 1] += inFirst[i];
+    }
+    sources = new int[m];
+    final int[] fill = Arrays.copyOf(inFirst, n);
+    for (int i = 0; i < n; i++) {
+      checkArgument(first[i] <= first[i + 1], "Invalid arc offsets.");
+      for (int a = first[i]; a < first[i + 1]; a++) {
+        sources[fill[targets[a]]++] = i;
+      }
+    }
+  }
+
+  /**
+   * Creates a compact copy of the specified graph.
+   * @param graph The graph to copy.
+   * @return A new graph with the same nodes and connections.
+   */
+  public static CsrGraph copyOf(Graph<? extends MultiAttributeData> graph) {
+    final int n = graph.getNumberOfNodes();
+    final int m = graph.getNumberOfConnections();
+    final Map<Point, Integer> ids = new LinkedHashMap<Point, Integer>(2 * n);
+    final double[] xs = new double[n];
+    final double[] ys = new double[n];
+    for (final Point p : graph.getNodes()) {
+      xs[ids.size()] = p.x;
+      ys[ids.size()] = p.y;
+      ids.put(p, ids.size());
+    }
+    final int[] first = new int[n + 1];
+    final int[] targets = new int[m];
+    final double[] lengths = new double[m];
+    final double[] maxSpeeds = new double[m];
+    int a = 0;
+    for (final Point from : ids.keySet()) {
+      for (final Point to : graph.getOutgoingConnections(from)) {
+        targets[a] = ids.get(to);
+        final Optional<? extends MultiAttributeData> data =
+          graph.connectionData(from, to);
+        lengths[a] = data.isPresent() && data.get().getLength().isPresent()
+          ? data.get().getLength().get()
+          : Double.NaN;
+        maxSpeeds[a] = data.isPresent() && data.get().getMaxSpeed().isPresent()
+          ? data.get().getMaxSpeed().get()
+          : Double.NaN;
+        a++;
+      }
+      first[ids.get(from) + 1] = a;
+    }
+    return new CsrGraph(xs, ys, first, targets, lengths, maxSpeeds);
+  }
+
+  /**
+   * Computes the largest strongly connected component, i.e. the largest set
+   * of nodes in which every node can be reached from every other node. Road
+   * networks that are cut out of a larger map usually contain dead ends that
+   * can be entered but not left (or vice versa), routing between arbitrary
+   * nodes is only possible within a strongly connected component.
+   * @return This graph if it is strongly connected, otherwise a new graph
+   *         with the nodes of the largest component (in the same order) and
+   *         the connections between them.
+   */
+  public CsrGraph largestStronglyConnectedComponent() {
+    final int n = points.length;
+    if (n == 0) {
+      return this;
+    }
+    // Kosaraju: finishing order on the graph, then components on the reverse
+    final int[] order = new int[n];
+    int ordered = 0;
+    final boolean[] visited = new boolean[n];
+    final int[] stack = new int[n];
+    final int[] next = new int[n];
+    for (int root = 0; root < n; root++) {
+      if (visited[root]) {
+        continue;
+      }
+      int top = 0;
+      stack[0] = root;
+      next[root] = first[root];
+      visited[root] = true;
+      while (top >= 0) {
+        final int v = stack[top];
+        if (next[v] < first[v + 1]) {
+          final int w = targets[next[v]++];
+          if (!visited[w]) {
+            visited[w] = true;
+            next[w] = first[w];
+            stack[++top] = w;
+          }
+        } else {
+          order[ordered++] = v;
+          top--;
+        }
+      }
+    }
+    final int[] component = new int[n];
+    Arrays.fill(component, -1);
+    int components = 0;
+    int largest = 0;
+    int largestSize = 0;
+    for (int i = n - 1; i >= 0; i--) {
+      final int root = order[i];
+      if (component[root] != -1) {
+        continue;
+      }
+      int top = 0;
+      int size = 0;
+      stack[0] = root;
+      component[root] = components;
+      while (top >= 0) {
+        final int v = stack[top--];
+        size++;
+        for (int a = inFirst[v]; a < inFirst[v + 1]; a++) {
+          final int w = sources[a];
+          if (component[w] == -1) {
+            component[w] = components;
+            stack[++top] = w;
+          }
+        }
+      }
+      if (size > largestSize) {
+        largestSize = size;
+        largest = components;
+      }
+      components++;
+    }
+    if (largestSize == n) {
+      return this;
+    }
+
+    final int[] ids = new int[n];
+    final double[] newXs = new double[largestSize];
+    final double[] newYs = new double[largestSize];
+    int k = 0;
+    for (int i = 0; i < n; i++) {
+      if (component[i] == largest) {
+        ids[i] = k;
+        newXs[k] = xs[i];
+        newYs[k] = ys[i];
+        k++;
+      }
+    }
+    final int[] newFirst = new int[largestSize + 1];
+    final int[] newTargets = new int[targets.length];
+    final double[] newLengths = new double[targets.length];
+    final double[] newMaxSpeeds = new double[targets.length];
+    int m = 0;
+    for (int i = 0; i < n; i++) {
+      if (component[i] != largest) {
+        continue;
+      }
+      newFirst[ids[i]] = m;
+      for (int a = first[i]; a < first[i + 1]; a++) {
+        if (component[targets[a]] == largest) {
+          newTargets[m] = ids[targets[a]];
+          newLengths[m] = lengths[a];
+          newMaxSpeeds[m] = maxSpeeds[a];
+          m++;
+        }
+      }
+    }
+    newFirst[largestSize] = m;
+    return new CsrGraph(newXs, newYs, newFirst, Arrays.copyOf(newTargets, m),
+      Arrays.copyOf(newLengths, m), Arrays.copyOf(newMaxSpeeds, m));
+  }
+
+  /**
+   * @param p A point.
+   * @return The id of the node at the point, or <code>-1</code> if there is no
+   *         such node.
+   */
+  public int indexOf(Point p) {
+    int slot = slot(p);
+    int id;
+    while ((id = table[slot]) != EMPTY) {
+      if (xs[id] == p.x && ys[id] == p.y) {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return EMPTY;
+  }
+
+  // spreads the bits of the point hash code, whose low bits are weak
+  private int slot(Point p) {
+    final int h = p.hashCode() * 0x9E3779B9;
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  /**
+   * @param id A node id.
+   * @return The node with the specified id.
+   */
+  public Point node(int id) {
+    return points[id];
+  }
+
+  /**
+   * @param id A node id.
+   * @return The index of the first outgoing arc of the node, the arcs of the
+   *         node end at <code>firstArc(id + 1)</code>.
+   */
+  public int firstArc(int id) {
+    return first[id];
+  }
+
+  /**
+   * @param arc An arc index.
+   * @return The id of the node the arc leads to.
+   */
+  public int arcTarget(int arc) {
+    return targets[arc];
+  }
+
+  /**
+   * @param arc An arc index.
+   * @return The length of the arc, see
+   *         {@link #connectionLength(Point, Point)}.
+   */
+  public double arcLength(int arc) {
+    final double len = lengths[arc];
+    if (len == len) {
+      return len;
+    }
+    // NaN, no length known: find the node that owns the arc, i.e. the last
+    // node whose first arc is not after it
+    int lo = 0;
+    int hi = points.length - 1;
+    while (lo < hi) {
+      final int mid = (lo + hi + 1) >>> 1;
+      if (first[mid] <= arc) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return Point.distance(points[lo], points[targets[arc]]);
+  }
+
+  /**
+   * @param arc An arc index.
+   * @return The maximum speed on the arc or {@link Double#NaN} if unknown.
+   */
+  public double arcMaxSpeed(int arc) {
+    return maxSpeeds[arc];
+  }
+
+  int arcIndex(Point from, Point to) {
+    final int f = indexOf(from);
+    if (f == EMPTY) {
+      return EMPTY;
+    }
+    final int t = indexOf(to);
+    if (t == EMPTY) {
+      return EMPTY;
+    }
+    for (int a = first[f]; a < first[f + 1]; a++) {
+      if (targets[a] == t) {
+        return a;
+      }
+    }
+    return EMPTY;
+  }
+
+  int checkedArcIndex(Point from, Point to) {
+    final int a = arcIndex(from, to);
+    checkArgument(a != EMPTY, "The connection %s->%s does not exist.", from,
+      to);
+    return a;
+  }
+
+  @Override
+  public boolean containsNode(Point node) {
+    return indexOf(node) != EMPTY;
+  }
+
+  @Override
+  public Collection<Point> getOutgoingConnections(Point node) {
+    final int id = indexOf(node);
+    checkArgument(id != EMPTY, "%s is not a node of this graph.", node);
+    return new NodeList(targets, first[id], first[id + 1]);
+  }
+
+  @Override
+  public Collection<Point> getIncomingConnections(Point node) {
+    final int id = indexOf(node);
+    checkArgument(id != EMPTY, "%s is not a node of this graph.", node);
+    return new NodeList(sources, inFirst[id], inFirst[id + 1]);
+  }
+
+  @Override
+  public boolean hasConnection(Point from, Point to) {
+    return arcIndex(from, to) != EMPTY;
+  }
+
+  @Override
+  public <T extends ConnectionData> boolean hasConnection(
+      Connection<T> connection) {
+    return hasConnection(connection.from(), connection.to())
+      && getConnection(connection.from(), connection.to()).equals(connection);
+  }
+
+  @Override
+  public Connection<MultiAttributeData> getConnection(Point from, Point to) {
+    return Connection.create(from, to, connectionData(from, to));
+  }
+
+  @Override
+  public Optional<MultiAttributeData> connectionData(Point from, Point to) {
+    return data(checkedArcIndex(from, to));
+  }
+
+  Optional<MultiAttributeData> data(int arc) {
+    final double len = lengths[arc];
+    final double speed = maxSpeeds[arc];
+    if (len != len && speed != speed) {
+      return Optional.absent();
+    }
+    final MultiAttributeData.Builder b = MultiAttributeData.builder();
+    if (len == len) {
+      b.setLength(len);
+    }
+    if (speed == speed) {
+      b.setMaxSpeed(speed);
+    }
+    return Optional.of(b.build());
+  }
+
+  @Override
+  public double connectionLength(Point from, Point to) {
+    final int a = arcIndex(from, to);
+    checkArgument(a != EMPTY,
+      "Can not get connection length from a non-existing connection.");
+    final double len = lengths[a];
+    return len == len ? len : Point.distance(from, to);
+  }
+
+  @Override
+  public int getNumberOfConnections() {
+    return targets.length;
+  }
+
+  @Override
+  public Set<Connection<MultiAttributeData>> getConnections() {
+    final ImmutableSet.Builder<Connection<MultiAttributeData>> b =
+      ImmutableSet.builder();
+    for (int i = 0; i < points.length; i++) {
+      for (int a = first[i]; a < first[i + 1]; a++) {
+        b.add(Connection.create(points[i], points[targets[a]], data(a)));
+      }
+    }
+    return b.build();
+  }
+
+  @Override
+  public int getNumberOfNodes() {
+    return points.length;
+  }
+
+  @Override
+  public Set<Point> getNodes() {
+    return new AbstractSet<Point>() {
+      @Override
+      public Iterator<Point> iterator() {
+        return Arrays.asList(points).iterator();
+      }
+
+      @Override
+      public int size() {
+        return points.length;
+      }
+
+      @Override
+      public boolean contains(@Nullable Object o) {
+        return o instanceof Point && indexOf((Point) o) != EMPTY;
+      }
+    };
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return points.length == 0;
+  }
+
+  @Override
+  public void removeNode(Point node) {
+    throw new UnsupportedOperationException("CsrGraph is immutable.");
+  }
+
+  @Override
+  public void removeConnection(Point from, Point to) {
+    throw new UnsupportedOperationException("CsrGraph is immutable.");
+  }
+
+  @Override
+  protected void doAddConnection(Point from, Point to,
+      Optional<MultiAttributeData> connData) {
+    throw new UnsupportedOperationException("CsrGraph is immutable.");
+  }
+
+  @Override
+  protected Optional<MultiAttributeData> doChangeConnectionData(Point from,
+      Point to, Optional<MultiAttributeData> connData) {
+    throw new UnsupportedOperationException("CsrGraph is immutable.");
+  }
+
+  @Override
+  public int hashCode() {
+    int h = hashCode;
+    if (h == 0) {
+      h = getConnections().hashCode();
+      hashCode = h;
+    }
+    return h;
+  }
+
+  // the backing arrays, for CsrGraphIO, must not be modified
+  double[] xs() {
+    return xs;
+  }
+
+  double[] ys() {
+    return ys;
+  }
+
+  int[] first() {
+    return first;
+  }
+
+  int[] targets() {
+    return targets;
+  }
+
+  double[] lengths() {
+    return lengths;
+  }
+
+  double[] maxSpeeds() {
+    return maxSpeeds;
+  }
+
+  // read-only view on a range of node ids
+  final class NodeList extends AbstractList<Point> {
+    private final int[] ids;
+    private final int from;
+    private final int to;
+
+    NodeList(int[] nodeIds, int fromIndex, int toIndex) {
+      ids = nodeIds;
+      from = fromIndex;
+      to = toIndex;
+    }
+
+    @Override
+    public Point get(int index) {
+      checkElementIndex(index, to - from);
+      return points[ids[from + index]];
+    }
+
+    @Override
+    public int size() {
+      return to - from;
+    }
+  }
+}
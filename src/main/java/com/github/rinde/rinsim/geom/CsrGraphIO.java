@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.geom;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads and writes {@link CsrGraph}s in a versioned binary format that is
+ * opened with {@link FileChannel#map(FileChannel.MapMode, long, long)}, so
+ * loading a graph only copies its arrays instead of parsing text. Every file
+ * records a checksum of the file the graph was originally read from (see
+ * {@link #checksum(File)}), a file with a different checksum or format version
+ * is treated as absent.
+ * <p>
+ * Layout, all values big-endian: a header with magic number, format version,
+ * source checksum, number of nodes <code>n</code> and number of connections
+ * <code>m</code>, followed by the x and y coordinates (<code>n</code> doubles
+ * each), the connection lengths and maximum speeds (<code>m</code> doubles
+ * each), the offsets of the first connection of each node (<code>n + 1</code>
+ * ints) and the connection targets (<code>m</code> ints).
+ * @author Rinde van Lon
+ */
+public final class CsrGraphIO {
+  /**
+   * The extension that is appended to the name of a source file to obtain the
+   * name of its binary graph file.
+   */
+  public static final String FILE_EXTENSION = ".csr";
+
+  static final int MAGIC = 0x52435352;
+  static final int FORMAT_VERSION = 1;
+  static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4;
+
+  private CsrGraphIO() {}
+
+  /**
+   * Computes the CRC-32 checksum of the contents of a file.
+   * @param file The file.
+   * @return The checksum.
+   * @throws IOException if the file can not be read.
+   */
+  public static long checksum(File file) throws IOException {
+    final CRC32 crc = new CRC32();
+    final InputStream in = new FileInputStream(file);
+    try {
+      final byte[] buffer = new byte[1 << 16];
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        crc.update(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+    return crc.getValue();
+  }
+
+  /**
+   * @param source A graph file in another format.
+   * @return The binary graph file that belongs to the source file.
+   */
+  public static File fileFor(File source) {
+    return new File(source.getPath() + FILE_EXTENSION);
+  }
+
+  /**
+   * Writes a graph. The file is first written under a temporary name and then
+   * renamed, such that readers never see a partially written file.
+   * @param graph The graph to write.
+   * @param sourceChecksum The checksum of the file the graph was read from.
+   * @param file The file to write to.
+   * @throws IOException if the file can not be written.
+   */
+  public static void write(CsrGraph graph, long sourceChecksum, File file)
+      throws IOException {
+    final File tmp = new File(file.getPath() + ".tmp");
+    final DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+    try {
+      final int n = graph.getNumberOfNodes();
+      final int m = graph.getNumberOfConnections();
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      out.writeLong(sourceChecksum);
+      out.writeInt(n);
+      out.writeInt(m);
+      writeDoubles(out, graph.xs());
+      writeDoubles(out, graph.ys());
+      writeDoubles(out, graph.lengths());
+      writeDoubles(out, graph.maxSpeeds());
+      writeInts(out, graph.first());
+      writeInts(out, graph.targets());
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(file)) {
+      file.delete();
+      if (!tmp.renameTo(file)) {
+        throw new IOException("Could not move " + tmp + " to " + file + ".");
+      }
+    }
+  }
+
+  /**
+   * Reads a graph that was written by
+   * {@link #write(CsrGraph, long, File)}.
+   * @param file The file to read.
+   * @param sourceChecksum The checksum of the current version of the file the
+   *          graph was originally read from.
+   * @return The graph, or <code>null</code> if the file does not exist, is
+   *         not a binary graph file of the current format version or was
+   *         written for a different checksum.
+   * @throws IOException if the file exists but can not be read.
+   */
+  @Nullable
+  public static CsrGraph read(File file, long sourceChecksum)
+      throws IOException {
+    if (!file.isFile() || file.length() < HEADER_BYTES) {
+      return null;
+    }
+    final RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      final FileChannel channel = raf.getChannel();
+      final ByteBuffer header =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+      if (header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION
+        || header.getLong() != sourceChecksum) {
+        return null;
+      }
+      final int n = header.getInt();
+      final int m = header.getInt();
+      if (n < 0 || m < 0 || channel.size() != HEADER_BYTES
+        + (2L * n + 2L * m) * 8 + (n + 1L + m) * 4) {
+        return null;
+      }
+      long offset = HEADER_BYTES;
+      final double[] xs = new double[n];
+      offset = readDoubles(channel, offset, xs);
+      final double[] ys = new double[n];
+      offset = readDoubles(channel, offset, ys);
+      final double[] lengths = new double[m];
+      offset = readDoubles(channel, offset, lengths);
+      final double[] maxSpeeds = new double[m];
+      offset = readDoubles(channel, offset, maxSpeeds);
+      final int[] first = new int[n + 1];
+      offset = readInts(channel, offset, first);
+      final int[] targets = new int[m];
+      readInts(channel, offset, targets);
+      return new CsrGraph(xs, ys, first, targets, lengths, maxSpeeds);
+    } finally {
+      raf.close();
+    }
+  }
+
+  static void writeDoubles(DataOutputStream out, double[] values)
+      throws IOException {
+    for (final double v : values) {
+      out.writeDouble(v);
+    }
+  }
+
+  static void writeInts(DataOutputStream out, int[] values)
+      throws IOException {
+    for (final int v : values) {
+      out.writeInt(v);
+    }
+  }
+
+  // bulk copies a mapped region, returns the offset after the region
+  static long readDoubles(FileChannel channel, long offset, double[] values)
+      throws IOException {
+    final long bytes = values.length * 8L;
+    if (bytes > 0) {
+      channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes)
+        .order(ByteOrder.BIG_ENDIAN)
+        .asDoubleBuffer()
+        .get(values);
+    }
+    return offset + bytes;
+  }
+
+  static long readInts(FileChannel channel, long offset, int[] values)
+      throws IOException {
+    final long bytes = values.length * 4L;
+    if (bytes > 0) {
+      channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes)
+        .order(ByteOrder.BIG_ENDIAN)
+        .asIntBuffer()
+        .get(values);
+    }
+    return offset + bytes;
+  }
+}
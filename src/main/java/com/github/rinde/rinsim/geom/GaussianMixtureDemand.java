@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.geom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.math3.exception.MathIllegalArgumentException;
+import org.apache.commons.math3.random.GaussianMixture;
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * {@link RandomNodeStrategy} that draws a coordinate from a bivariate Gaussian
+ * mixture, expressed in the coordinate space of the graph, and returns the
+ * node closest to it. The mixture is read from a text file with one component
+ * per line:
+ *
+ * <pre>
+ * # weight, mean_x, mean_y, cov_xx, cov_xy, cov_yy
+ * 0.6, 55.3720, 25.1030, 0.00004, 0.00001, 0.00003
+ * 0.4, 55.3750, 25.1070, 0.00002, 0, 0.00002
+ * </pre>
+ *
+ * Empty lines and lines starting with <code>#</code> are ignored, weights do
+ * not need to sum to one. The covariance factorizations are computed once
+ * when the model is loaded.
+ * @author Rinde van Lon
+ */
+public final class GaussianMixtureDemand implements RandomNodeStrategy {
+  private static final String SEPARATOR = ",";
+  private static final String COMMENT = "#";
+  private static final int NUM_COLUMNS = 6;
+
+  private final GaussianMixture mixture;
+
+  GaussianMixtureDemand(GaussianMixture gmm) {
+    checkArgument(gmm.getDimension() == 2,
+      "A demand model must be bivariate, found %s variables.",
+      gmm.getDimension());
+    mixture = gmm;
+  }
+
+  /**
+   * Creates a demand model from the specified mixture.
+   * @param gmm A bivariate mixture in graph coordinates.
+   * @return A new demand model.
+   */
+  public static GaussianMixtureDemand create(GaussianMixture gmm) {
+    return new GaussianMixtureDemand(gmm);
+  }
+
+  /**
+   * Reads a demand model from a file, see the class documentation for the
+   * format.
+   * @param file The file to read.
+   * @return A new demand model.
+   * @throws IOException if the file can not be read.
+   * @throws IllegalArgumentException if the file is not a valid model.
+   */
+  public static GaussianMixtureDemand load(File file) throws IOException {
+    final InputStream in = new FileInputStream(file);
+    try {
+      return read(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Reads a demand model from a stream, see the class documentation for the
+   * format. The stream is not closed.
+   * @param in The stream to read.
+   * @return A new demand model.
+   * @throws IOException if the stream can not be read.
+   * @throws IllegalArgumentException if the stream is not a valid model.
+   */
+  public static GaussianMixtureDemand read(InputStream in) throws IOException {
+    final BufferedReader reader =
+      new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    final List<double[]> rows = new ArrayList<double[]>();
+    String line;
+    int lineNumber = 0;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      final String trimmed = line.trim();
+      if (trimmed.isEmpty() || trimmed.startsWith(COMMENT)) {
+        continue;
+      }
+      final String[] parts = trimmed.split(SEPARATOR);
+      checkArgument(parts.length == NUM_COLUMNS,
+        "Line %s: expected %s values but found %s.", lineNumber, NUM_COLUMNS,
+        parts.length);
+      final double[] row = new double[NUM_COLUMNS];
+      for (int i = 0; i < NUM_COLUMNS; i++) {
+        try {
+          row[i] = Double.parseDouble(parts[i].trim());
+        } catch (final NumberFormatException e) {
+          throw new IllegalArgumentException(
+            "Line " + lineNumber + ": " + parts[i].trim() + " is not a number.",
+            e);
+        }
+      }
+      rows.add(row);
+    }
+    checkArgument(!rows.isEmpty(), "A demand model needs at least one line.");
+
+    final int k = rows.size();
+    final double[] weights = new double[k];
+    final double[][] means = new double[k][];
+    final double[][][] covariances = new double[k][][];
+    for (int j = 0; j < k; j++) {
+      final double[] r = rows.get(j);
+      weights[j] = r[0];
+      means[j] = new double[] {r[1], r[2]};
+      covariances[j] = new double[][] {{r[3], r[4]}, {r[4], r[5]}};
+    }
+    try {
+      return new GaussianMixtureDemand(
+        new GaussianMixture(weights, means, covariances));
+    } catch (final MathIllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid demand model: "
+        + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @return The number of mixture components.
+   */
+  public int getNumberOfComponents() {
+    return mixture.getNumberOfComponents();
+  }
+
+  @Override
+  public Point sample(NodeSnapshot nodes, RandomGenerator generator) {
+    final double[] p = new double[2];
+    mixture.sample(generator, p);
+    return nodes.nearest(p[0], p[1]);
+  }
+}
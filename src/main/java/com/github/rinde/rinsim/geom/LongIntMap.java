@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.geom;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from long keys to non-negative int values, without
+ * boxing. Used to map the 64-bit ids of an OpenStreetMap file to dense int
+ * indices.
+ * @author Rinde van Lon
+ */
+final class LongIntMap {
+  static final int ABSENT = -1;
+  private static final double MAX_LOAD = .5;
+
+  private long[] keys;
+  private int[] values;
+  private int size;
+
+  LongIntMap() {
+    keys = new long[16];
+    values = new int[16];
+    Arrays.fill(values, ABSENT);
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @param key The key.
+   * @return The value of the key or {@link #ABSENT}.
+   */
+  int get(long key) {
+    final int mask = keys.length - 1;
+    int slot = slot(key, mask);
+    while (values[slot] != ABSENT) {
+      if (keys[slot] == key) {
+        return values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return ABSENT;
+  }
+
+  /**
+   * Returns the value of the key, if the key is absent it is added with the
+   * next dense index (the current size) as value.
+   * @param key The key.
+   * @return The value of the key.
+   */
+  int getOrAddIndex(long key) {
+    final int mask = keys.length - 1;
+    int slot = slot(key, mask);
+    while (values[slot] != ABSENT) {
+      if (keys[slot] == key) {
+        return values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    final int index = size;
+    keys[slot] = key;
+    values[slot] = index;
+    size++;
+    if (size > keys.length * MAX_LOAD) {
+      grow();
+    }
+    return index;
+  }
+
+  private void grow() {
+    final long[] oldKeys = keys;
+    final int[] oldValues = values;
+    keys = new long[oldKeys.length * 2];
+    values = new int[oldKeys.length * 2];
+    Arrays.fill(values, ABSENT);
+    final int mask = keys.length - 1;
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldValues[i] != ABSENT) {
+        int slot = slot(oldKeys[i], mask);
+        while (values[slot] != ABSENT) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  private static int slot(long key, int mask) {
+    final long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.geom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Static two dimensional k-d tree over the nodes of a graph. The tree is
+ * stored implicitly in the arrays it is created with: these are permuted such
+ * that for every range <code>[lo, hi)</code> the median element at
+ * <code>(lo + hi) / 2</code> splits the range on the x axis (even depth) or y
+ * axis (odd depth). Nearest node queries use the euclidean distance in
+ * coordinate space, run in <code>O(log N)</code> on average and do not
+ * allocate any objects. Instances are immutable and can be shared between
+ * threads.
+ * @author Rinde van Lon
+ */
+final class NodeKdTree {
+  private final Point[] points;
+  private final double[] xs;
+  private final double[] ys;
+
+  /**
+   * Builds a tree in the specified arrays, the arrays are permuted in place
+   * and must not be modified afterwards.
+   * @param ps The nodes to index, may not be empty.
+   * @param xCoords The x coordinates of the nodes.
+   * @param yCoords The y coordinates of the nodes.
+   */
+  NodeKdTree(Point[] ps, double[] xCoords, double[] yCoords) {
+    checkArgument(ps.length > 0, "Can not index an empty set of nodes.");
+    checkArgument(ps.length == xCoords.length && ps.length == yCoords.length,
+      "Coordinate arrays must have the same length as the nodes array.");
+    points = ps;
+    xs = xCoords;
+    ys = yCoords;
+    build(0, ps.length, true);
+  }
+
+  /**
+   * Finds the node that is closest to the specified coordinate.
+   * @param x The x coordinate.
+   * @param y The y coordinate.
+   * @return The index of the nearest node in the arrays of this tree.
+   */
+  int nearest(double x, double y) {
+    return search(0, points.length, true, x, y, -1);
+  }
+
+  private void build(int lo, int hi, boolean xAxis) {
+    if (hi - lo < 2) {
+      return;
+    }
+    final int mid = (lo + hi) >>> 1;
+    select(lo, hi - 1, mid, xAxis ? xs : ys);
+    build(lo, mid, !xAxis);
+    build(mid + 1, hi, !xAxis);
+  }
+
+  // quickselect: afterwards keys[k] is in its sorted position within
+  // [left, right], smaller or equal keys are before it, larger or equal after.
+  private void select(int left, int right, int k, double[] keys) {
+    int l = left;
+    int r = right;
+    while (r > l) {
+      final double pivot = keys[(l + r) >>> 1];
+      int i = l;
+      int j = r;
+      while (i <= j) {
+        while (keys[i] < pivot) {
+          i++;
+        }
+        while (keys[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swap(i, j);
+          i++;
+          j--;
+        }
+      }
+      if (k <= j) {
+        r = j;
+      } else if (k >= i) {
+        l = i;
+      } else {
+        return;
+      }
+    }
+  }
+
+  private void swap(int i, int j) {
+    final Point p = points[i];
+    points[i] = points[j];
+    points[j] = p;
+    final double x = xs[i];
+    xs[i] = xs[j];
+    xs[j] = x;
+    final double y = ys[i];
+    ys[i] = ys[j];
+    ys[j] = y;
+  }
+
+  private int search(int lo, int hi, boolean xAxis, double x, double y,
+      int best) {
+    if (lo >= hi) {
+      return best;
+    }
+    final int mid = (lo + hi) >>> 1;
+    int result = best;
+    if (result < 0 || squaredDistance(mid, x, y) < squaredDistance(result, x,
+      y)) {
+      result = mid;
+    }
+    final double diff = xAxis ? x - xs[mid] : y - ys[mid];
+    if (diff < 0) {
+      result = search(lo, mid, !xAxis, x, y, result);
+      if (diff * diff < squaredDistance(result, x, y)) {
+        result = search(mid + 1, hi, !xAxis, x, y, result);
+      }
+    } else {
+      result = search(mid + 1, hi, !xAxis, x, y, result);
+      if (diff * diff < squaredDistance(result, x, y)) {
+        result = search(lo, mid, !xAxis, x, y, result);
+      }
+    }
+    return result;
+  }
+
+  private double squaredDistance(int i, double x, double y) {
+    final double dx = xs[i] - x;
+    final double dy = ys[i] - y;
+    return dx * dx + dy * dy;
+  }
+}
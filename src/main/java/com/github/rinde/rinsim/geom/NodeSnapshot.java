@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.geom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Collection;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Immutable, indexed view on the nodes of a {@link Graph} at a certain version
+ * of that graph. The nodes are stored in an array, their coordinates in two
+ * separate primitive arrays (x and y), such that random access, uniform
+ * sampling, bounding box queries and nearest node lookups are all cheap.
+ * Snapshots are created and cached by {@link AbstractGraph#getNodeSnapshot()}.
+ * @author Rinde van Lon
+ */
+public final class NodeSnapshot {
+  private final long version;
+  private final Point[] nodes;
+  private final double[] xs;
+  private final double[] ys;
+  private final double minX;
+  private final double minY;
+  private final double maxX;
+  private final double maxY;
+  private final NodeKdTree index;
+
+  NodeSnapshot(Collection<Point> ns, long v) {
+    checkArgument(!ns.isEmpty(), "Can not create a snapshot of no nodes.");
+    version = v;
+    nodes = ns.toArray(new Point[ns.size()]);
+    xs = new double[nodes.length];
+    ys = new double[nodes.length];
+    double x0 = Double.POSITIVE_INFINITY;
+    double y0 = Double.POSITIVE_INFINITY;
+    double x1 = Double.NEGATIVE_INFINITY;
+    double y1 = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < nodes.length; i++) {
+      xs[i] = nodes[i].x;
+      ys[i] = nodes[i].y;
+      x0 = Math.min(x0, xs[i]);
+      y0 = Math.min(y0, ys[i]);
+      x1 = Math.max(x1, xs[i]);
+      y1 = Math.max(y1, ys[i]);
+    }
+    minX = x0;
+    minY = y0;
+    maxX = x1;
+    maxY = y1;
+    index = new NodeKdTree(nodes, xs, ys);
+  }
+
+  /**
+   * @return The version of the graph this snapshot was taken of.
+   */
+  public long version() {
+    return version;
+  }
+
+  /**
+   * @return The number of nodes.
+   */
+  public int size() {
+    return nodes.length;
+  }
+
+  /**
+   * @param i The index of the node, <code>0 &lt;= i &lt; size()</code>.
+   * @return The node at the specified index.
+   */
+  public Point node(int i) {
+    return nodes[i];
+  }
+
+  /**
+   * @param i The index of the node, <code>0 &lt;= i &lt; size()</code>.
+   * @return The x coordinate of the node at the specified index.
+   */
+  public double x(int i) {
+    return xs[i];
+  }
+
+  /**
+   * @param i The index of the node, <code>0 &lt;= i &lt; size()</code>.
+   * @return The y coordinate of the node at the specified index.
+   */
+  public double y(int i) {
+    return ys[i];
+  }
+
+  /**
+   * @return The smallest x coordinate of all nodes.
+   */
+  public double minX() {
+    return minX;
+  }
+
+  /**
+   * @return The smallest y coordinate of all nodes.
+   */
+  public double minY() {
+    return minY;
+  }
+
+  /**
+   * @return The largest x coordinate of all nodes.
+   */
+  public double maxX() {
+    return maxX;
+  }
+
+  /**
+   * @return The largest y coordinate of all nodes.
+   */
+  public double maxY() {
+    return maxY;
+  }
+
+  /**
+   * Finds the index of the node closest (euclidean distance in coordinate
+   * space) to the specified coordinate.
+   * @param x The x coordinate.
+   * @param y The y coordinate.
+   * @return The index of the nearest node.
+   */
+  public int nearestIndex(double x, double y) {
+    return index.nearest(x, y);
+  }
+
+  /**
+   * Finds the node closest (euclidean distance in coordinate space) to the
+   * specified coordinate.
+   * @param x The x coordinate.
+   * @param y The y coordinate.
+   * @return The nearest node.
+   */
+  public Point nearest(double x, double y) {
+    return nodes[index.nearest(x, y)];
+  }
+
+  /**
+   * Draws a node uniformly at random.
+   * @param generator The random generator to use.
+   * @return A random node.
+   */
+  public Point randomNode(RandomGenerator generator) {
+    return nodes[generator.nextInt(nodes.length)];
+  }
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.geom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Streaming importer of OpenStreetMap XML files (<code>.osm</code>, optionally
+ * gzipped as <code>.osm.gz</code>) that produces a routable {@link CsrGraph}.
+ * The file is read twice with a StAX parser and no DOM is built: the first
+ * pass collects the ways with an accepted <code>highway</code> class and the
+ * ids of the nodes they use, the second pass only stores the coordinates of
+ * those nodes. OSM ids are mapped to dense indices by a primitive hash map.
+ * <p>
+ * Every pair of consecutive nodes of a way becomes a connection (or two, if
+ * the way is not one-way) with as length the great-circle distance in
+ * kilometers and as maximum speed the <code>maxspeed</code> tag in km/h, or
+ * the default speed of the highway class if the way has no usable tag. Nodes
+ * are points with the longitude as x and the latitude as y, like the nodes of
+ * the DOT maps. References to nodes that are missing from the file (ways that
+ * cross the border of an extract) are skipped and only the largest strongly
+ * connected component is kept (see
+ * {@link CsrGraph#largestStronglyConnectedComponent()}), such that every node
+ * can be reached from every other node.
+ * @author Rinde van Lon
+ */
+public final class OsmGraphIO {
+  /**
+   * The highway classes that are imported by default, with their default
+   * speed in km/h.
+   */
+  public static final ImmutableMap<String, Double> DEFAULT_SPEEDS =
+    ImmutableMap.<String, Double>builder()
+      .put("motorway", 120d)
+      .put("motorway_link", 60d)
+      .put("trunk", 100d)
+      .put("trunk_link", 50d)
+      .put("primary", 80d)
+      .put("primary_link", 40d)
+      .put("secondary", 60d)
+      .put("secondary_link", 40d)
+      .put("tertiary", 50d)
+      .put("tertiary_link", 30d)
+      .put("unclassified", 40d)
+      .put("residential", 30d)
+      .put("living_street", 10d)
+      .put("service", 20d)
+      .put("road", 30d)
+      .build();
+
+  static final double MPH_TO_KMH = 1.609344;
+
+  private final ImmutableMap<String, Double> speeds;
+  private final boolean oneway;
+
+  private OsmGraphIO(Map<String, Double> highwaySpeeds, boolean respectOneway) {
+    speeds = ImmutableMap.copyOf(highwaySpeeds);
+    oneway = respectOneway;
+  }
+
+  /**
+   * @return An importer of the {@link #DEFAULT_SPEEDS} highway classes that
+   *         respects one-way streets.
+   */
+  public static OsmGraphIO create() {
+    return new OsmGraphIO(DEFAULT_SPEEDS, true);
+  }
+
+  /**
+   * @param highwaySpeeds The highway classes to import with their default
+   *          speed in km/h, ways of other classes are ignored.
+   * @param respectOneway If <code>false</code> all ways can be traveled in
+   *          both directions.
+   * @return A new importer.
+   */
+  public static OsmGraphIO create(Map<String, Double> highwaySpeeds,
+      boolean respectOneway) {
+    checkArgument(!highwaySpeeds.isEmpty(),
+      "At least one highway class is required.");
+    for (final Double s : highwaySpeeds.values()) {
+      checkArgument(s > 0, "Speeds must be positive, found %s.", s);
+    }
+    return new OsmGraphIO(highwaySpeeds, respectOneway);
+  }
+
+  /**
+   * Imports the road network of an OSM file.
+   * @param file The file, read twice.
+   * @return The graph.
+   * @throws IOException if the file can not be read or is not valid XML.
+   */
+  public CsrGraph read(File file) throws IOException {
+    final Ways ways = new Ways();
+    InputStream in = open(file);
+    try {
+      readWays(in, ways);
+    } finally {
+      in.close();
+    }
+    final double[] lons = new double[ways.nodes.size()];
+    final double[] lats = new double[ways.nodes.size()];
+    Arrays.fill(lons, Double.NaN);
+    Arrays.fill(lats, Double.NaN);
+    in = open(file);
+    try {
+      readNodes(in, ways.nodes, lons, lats);
+    } finally {
+      in.close();
+    }
+    return ways.toGraph(lons, lats).largestStronglyConnectedComponent();
+  }
+
+  static InputStream open(File file) throws IOException {
+    final InputStream in =
+      new BufferedInputStream(new FileInputStream(file), 1 << 16);
+    return file.getName().endsWith(".gz") ? new GZIPInputStream(in, 1 << 16)
+      : in;
+  }
+
+  static XMLStreamReader reader(InputStream in) throws IOException {
+    try {
+      final XMLInputFactory factory = XMLInputFactory.newInstance();
+      factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+      factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+        false);
+      return factory.createXMLStreamReader(in);
+    } catch (final XMLStreamException e) {
+      throw new IOException(e);
+    }
+  }
+
+  // first pass: highway ways and the nodes they reference
+  void readWays(InputStream in, Ways ways) throws IOException {
+    final XMLStreamReader r = reader(in);
+    final LongBuffer refs = new LongBuffer();
+    boolean inWay = false;
+    String highway = null;
+    String onewayTag = null;
+    String junction = null;
+    String maxspeed = null;
+    try {
+      while (r.hasNext()) {
+        final int event = r.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          final String name = r.getLocalName();
+          if ("way".equals(name)) {
+            inWay = true;
+            refs.size = 0;
+            highway = null;
+            onewayTag = null;
+            junction = null;
+            maxspeed = null;
+          } else if (inWay && "nd".equals(name)) {
+            refs.add(Long.parseLong(r.getAttributeValue(null, "ref")));
+          } else if (inWay && "tag".equals(name)) {
+            final String k = r.getAttributeValue(null, "k");
+            final String v = r.getAttributeValue(null, "v");
+            if ("highway".equals(k)) {
+              highway = v;
+            } else if ("oneway".equals(k)) {
+              onewayTag = v;
+            } else if ("junction".equals(k)) {
+              junction = v;
+            } else if ("maxspeed".equals(k)) {
+              maxspeed = v;
+            }
+          }
+        } else if (event == XMLStreamConstants.END_ELEMENT
+          && "way".equals(r.getLocalName())) {
+          inWay = false;
+          if (highway != null && speeds.containsKey(highway)
+            && refs.size > 1) {
+            final double speed = parseSpeed(maxspeed, speeds.get(highway));
+            final int direction =
+              oneway ? direction(highway, onewayTag, junction) : 0;
+            ways.add(refs, speed, direction);
+          }
+        }
+      }
+      r.close();
+    } catch (final XMLStreamException e) {
+      throw new IOException(e);
+    } catch (final NumberFormatException e) {
+      throw new IOException("Invalid node reference.", e);
+    }
+  }
+
+  // second pass: coordinates of the referenced nodes
+  static void readNodes(InputStream in, LongIntMap nodes, double[] lons,
+      double[] lats) throws IOException {
+    final XMLStreamReader r = reader(in);
+    try {
+      while (r.hasNext()) {
+        if (r.next() == XMLStreamConstants.START_ELEMENT
+          && "node".equals(r.getLocalName())) {
+          final int index =
+            nodes.get(Long.parseLong(r.getAttributeValue(null, "id")));
+          if (index != LongIntMap.ABSENT) {
+            lons[index] = Double.parseDouble(r.getAttributeValue(null, "lon"));
+            lats[index] = Double.parseDouble(r.getAttributeValue(null, "lat"));
+          }
+        }
+      }
+      r.close();
+    } catch (final XMLStreamException e) {
+      throw new IOException(e);
+    } catch (final NumberFormatException e) {
+      throw new IOException("Invalid node.", e);
+    }
+  }
+
+  /**
+   * Parses an OSM <code>maxspeed</code> value such as <code>60</code>,
+   * <code>60 km/h</code> or <code>30 mph</code>.
+   * @param value The value, may be <code>null</code>.
+   * @param defaultSpeed The speed to use if there is no numeric value.
+   * @return The speed in km/h.
+   */
+  static double parseSpeed(@Nullable String value, double defaultSpeed) {
+    if (value == null) {
+      return defaultSpeed;
+    }
+    final String v = value.trim();
+    int end = 0;
+    while (end < v.length()
+      && (Character.isDigit(v.charAt(end)) || v.charAt(end) == '.')) {
+      end++;
+    }
+    if (end == 0) {
+      // none, signals, walk, ...
+      return defaultSpeed;
+    }
+    final double speed;
+    try {
+      speed = Double.parseDouble(v.substring(0, end));
+    } catch (final NumberFormatException e) {
+      return defaultSpeed;
+    }
+    if (!(speed > 0)) {
+      return defaultSpeed;
+    }
+    return v.contains("mph") ? speed * MPH_TO_KMH : speed;
+  }
+
+  /**
+   * @return <code>1</code> if the way is one-way in the order of its nodes,
+   *         <code>-1</code> if it is one-way in reverse order, <code>0</code>
+   *         if it is a two-way street.
+   */
+  static int direction(String highway, @Nullable String onewayTag,
+      @Nullable String junction) {
+    if (onewayTag != null) {
+      if ("yes".equals(onewayTag) || "true".equals(onewayTag)
+        || "1".equals(onewayTag)) {
+        return 1;
+      }
+      if ("-1".equals(onewayTag) || "reverse".equals(onewayTag)) {
+        return -1;
+      }
+      if ("no".equals(onewayTag) || "false".equals(onewayTag)
+        || "0".equals(onewayTag)) {
+        return 0;
+      }
+    }
+    // implied one-way streets
+    return "motorway".equals(highway) || "roundabout".equals(junction)
+      || "circular".equals(junction) ? 1 : 0;
+  }
+
+  // graph ids in order of first use, nodes without coordinates are dropped
+  // and nodes at the same position are merged
+  static final class NodeIds {
+    final double[] lons;
+    final double[] lats;
+    final int[] ids;
+    final Map<Point, Integer> positions = new HashMap<Point, Integer>();
+    double[] xs = new double[16];
+    double[] ys = new double[16];
+    int size;
+
+    NodeIds(double[] longitudes, double[] latitudes) {
+      lons = longitudes;
+      lats = latitudes;
+      ids = new int[lons.length];
+      Arrays.fill(ids, -1);
+    }
+
+    // the graph id of a dense node index, -1 if it has no coordinates
+    int idOf(int node) {
+      if (ids[node] == -1 && !Double.isNaN(lons[node])) {
+        final Point p = new Point(lons[node], lats[node]);
+        Integer id = positions.get(p);
+        if (id == null) {
+          id = size++;
+          positions.put(p, id);
+          if (id == xs.length) {
+            xs = Arrays.copyOf(xs, id * 2);
+            ys = Arrays.copyOf(ys, id * 2);
+          }
+          xs[id] = p.x;
+          ys[id] = p.y;
+        }
+        ids[node] = id;
+      }
+      return ids[node];
+    }
+  }
+
+  // growable primitive long buffer
+  static final class LongBuffer {
+    long[] values = new long[64];
+    int size;
+
+    void add(long v) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = v;
+    }
+  }
+
+  // the arcs of all imported ways between dense node indices
+  static final class Ways {
+    final LongIntMap nodes = new LongIntMap();
+    int[] from = new int[1024];
+    int[] to = new int[1024];
+    double[] speed = new double[1024];
+    int size;
+
+    void add(LongBuffer refs, double s, int direction) {
+      int prev = nodes.getOrAddIndex(refs.values[0]);
+      for (int i = 1; i < refs.size; i++) {
+        final int next = nodes.getOrAddIndex(refs.values[i]);
+        if (direction >= 0) {
+          addArc(prev, next, s);
+        }
+        if (direction <= 0) {
+          addArc(next, prev, s);
+        }
+        prev = next;
+      }
+    }
+
+    void addArc(int f, int t, double s) {
+      if (size == from.length) {
+        from = Arrays.copyOf(from, size * 2);
+        to = Arrays.copyOf(to, size * 2);
+        speed = Arrays.copyOf(speed, size * 2);
+      }
+      from[size] = f;
+      to[size] = t;
+      speed[size] = s;
+      size++;
+    }
+
+    CsrGraph toGraph(double[] lons, double[] lats) {
+      final NodeIds ids = new NodeIds(lons, lats);
+      final int[] arcFrom = new int[size];
+      final int[] arcTo = new int[size];
+      final double[] arcSpeed = new double[size];
+      int arcs = 0;
+      for (int a = 0; a < size; a++) {
+        final int f = ids.idOf(from[a]);
+        final int t = ids.idOf(to[a]);
+        if (f >= 0 && t >= 0 && f != t) {
+          arcFrom[arcs] = f;
+          arcTo[arcs] = t;
+          arcSpeed[arcs] = speed[a];
+          arcs++;
+        }
+      }
+      final int n = ids.size;
+      final double[] xs = Arrays.copyOf(ids.xs, n);
+      final double[] ys = Arrays.copyOf(ids.ys, n);
+
+      // counting sort by source node, keeping the order within each node
+      final int[] first = new int[n + 1];
+      for (int a = 0; a < arcs; a++) {
+        first[arcFrom[a] + 1]++;
+      }
+      for (int i = 0; i < n; i++) {
+        first[i + 1] += first[i];
+      }
+      final int[] fill = Arrays.copyOf(first, n);
+      final int[] sortedTo = new int[arcs];
+      final double[] sortedSpeed = new double[arcs];
+      for (int a = 0; a < arcs; a++) {
+        final int pos = fill[arcFrom[a]]++;
+        sortedTo[pos] = arcTo[a];
+        sortedSpeed[pos] = arcSpeed[a];
+      }
+
+      // remove parallel arcs (overlapping ways), the first one is kept
+      final int[] targets = new int[arcs];
+      final double[] lengths = new double[arcs];
+      final double[] maxSpeeds = new double[arcs];
+      final int[] newFirst = new int[n + 1];
+      int m = 0;
+      for (int i = 0; i < n; i++) {
+        newFirst[i] = m;
+        for (int a = first[i]; a < first[i + 1]; a++) {
+          boolean duplicate = false;
+          for (int b = newFirst[i]; b < m; b++) {
+            if (targets[b] == sortedTo[a]) {
+              duplicate = true;
+              break;
+            }
+          }
+          if (!duplicate) {
+            targets[m] = sortedTo[a];
+            lengths[m] = Point.distance(new Point(xs[i], ys[i]),
+              new Point(xs[sortedTo[a]], ys[sortedTo[a]]));
+            maxSpeeds[m] = sortedSpeed[a];
+            m++;
+          }
+        }
+      }
+      newFirst[n] = m;
+      return new CsrGraph(xs, ys, newFirst, Arrays.copyOf(targets, m),
+        Arrays.copyOf(lengths, m), Arrays.copyOf(maxSpeeds, m));
+    }
+  }
+}
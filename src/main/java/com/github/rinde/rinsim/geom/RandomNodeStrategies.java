@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.geom;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Provides the default {@link RandomNodeStrategy} implementations. For demand
+ * models configured from a file see {@link GaussianMixtureDemand}.
+ * @author Rinde van Lon
+ */
+public final class RandomNodeStrategies {
+
+  // samples are truncated at this many standard deviations and then rescaled
+  // to the bounding box of the graph
+  static final double UPPER_BOUND = 10;
+
+  private RandomNodeStrategies() {}
+
+  /**
+   * @return A strategy that draws every node with equal probability.
+   */
+  public static RandomNodeStrategy uniform() {
+    return Default.UNIFORM;
+  }
+
+  /**
+   * @return A strategy that draws a coordinate from a standard normal
+   *         distribution per axis, rescales it to the bounding box of the
+   *         graph and returns the node closest to it. This is the default
+   *         strategy of {@link AbstractGraph}.
+   */
+  public static RandomNodeStrategy gaussian() {
+    return Default.GAUSSIAN;
+  }
+
+  /**
+   * @return A strategy like {@link #gaussian()} that draws the coordinate from
+   *         {@link RandomGenerator#nextGmmPoint()} instead.
+   */
+  public static RandomNodeStrategy generatorGmm() {
+    return Default.GENERATOR_GMM;
+  }
+
+  // maps a standard normal deviate (truncated at UPPER_BOUND sigma, rejected
+  // values are redrawn from nextGaussian()) to [min, max]
+  static double rescale(double value, double min, double max,
+      RandomGenerator generator) {
+    double v = value;
+    while (v < -UPPER_BOUND || UPPER_BOUND < v) {
+      v = generator.nextGaussian();
+    }
+    v = (v + UPPER_BOUND) / (2 * UPPER_BOUND);
+    return v * (max - min) + min;
+  }
+
+  enum Default implements RandomNodeStrategy {
+    UNIFORM {
+      @Override
+      public Point sample(NodeSnapshot nodes, RandomGenerator generator) {
+        return nodes.randomNode(generator);
+      }
+    },
+    GAUSSIAN {
+      @Override
+      public Point sample(NodeSnapshot nodes, RandomGenerator generator) {
+        final double gx = generator.nextGaussian();
+        final double gy = generator.nextGaussian();
+        final double x = rescale(gx, nodes.minX(), nodes.maxX(), generator);
+        final double y = rescale(gy, nodes.minY(), nodes.maxY(), generator);
+        return nodes.nearest(x, y);
+      }
+    },
+    GENERATOR_GMM {
+      @Override
+      public Point sample(NodeSnapshot nodes, RandomGenerator generator) {
+        final double[] p = generator.nextGmmPoint();
+        final double x = rescale(p[0], nodes.minX(), nodes.maxX(), generator);
+        final double y = rescale(p[1], nodes.minY(), nodes.maxY(), generator);
+        return nodes.nearest(x, y);
+      }
+    }
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.geom;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * Strategy that decides how {@link AbstractGraph#getRandomNode(RandomGenerator)}
+ * draws a node. See {@link RandomNodeStrategies} for the default
+ * implementations. Implementations must be thread-safe, a graph (and thus its
+ * strategy) can be shared by several simulations.
+ * @author Rinde van Lon
+ */
+public interface RandomNodeStrategy {
+
+  /**
+   * Draws a random node.
+   * @param nodes The current snapshot of the nodes of the graph, never empty.
+   * @param generator The random generator to use.
+   * @return One of the nodes in the snapshot.
+   */
+  Point sample(NodeSnapshot nodes, RandomGenerator generator);
+}
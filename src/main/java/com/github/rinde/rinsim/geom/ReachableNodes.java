@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2011-2018 Rinde R.S. van Lon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.rinsim.geom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.commons.math3.random.RandomGenerator;
+
+/**
+ * The nodes that can be reached from a source node within a maximum shortest
+ * path distance, together with those distances. The result of a single
+ * one-to-many Dijkstra search ({@link #search(Graph, Point, double)}), nodes
+ * are stored in order of increasing distance. Distances are the sums of
+ * {@link Graph#connectionLength(Point, Point)}, i.e. the same values that a
+ * road model reports for the corresponding shortest paths. Instances are
+ * immutable.
+ * @author Rinde van Lon
+ */
+public final class ReachableNodes {
+  private final Point source;
+  private final Point[] nodes;
+  private final double[] distances;
+
+  private ReachableNodes(Point src, Point[] ns, double[] ds) {
+    source = src;
+    nodes = ns;
+    distances = ds;
+  }
+
+  /**
+   * Runs a Dijkstra search from the source that stops as soon as the next
+   * closest node is further away than <code>maxDistance</code>.
+   * @param graph The graph to search.
+   * @param source The node to start from.
+   * @param maxDistance The maximum distance, may be
+   *          {@link Double#POSITIVE_INFINITY}.
+   * @return All nodes within the maximum distance (including the source).
+   */
+  public static ReachableNodes search(Graph<?> graph, Point source,
+      double maxDistance) {
+    checkArgument(graph.containsNode(source), "%s is not a node of the graph.",
+      source);
+    checkArgument(maxDistance >= 0, "The maximum distance can not be negative.");
+
+    final Map<Point, Double> best = new HashMap<Point, Double>();
+    final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+    Point[] settledNodes = new Point[16];
+    double[] settledDistances = new double[16];
+    int size = 0;
+
+    best.put(source, 0d);
+    queue.add(new Entry(source, 0d));
+    while (!queue.isEmpty()) {
+      final Entry e = queue.poll();
+      if (e.distance > best.get(e.node)) {
+        // stale entry, node was settled with a shorter distance
+        continue;
+      }
+      if (e.distance > maxDistance) {
+        break;
+      }
+      if (size == settledNodes.length) {
+        settledNodes = Arrays.copyOf(settledNodes, size * 2);
+        settledDistances = Arrays.copyOf(settledDistances, size * 2);
+      }
+      settledNodes[size] = e.node;
+      settledDistances[size] = e.distance;
+      size++;
+      // mark as settled, such that it is never improved again
+      best.put(e.node, Double.NEGATIVE_INFINITY);
+
+      for (final Point next : graph.getOutgoingConnections(e.node)) {
+        final double d = e.distance + graph.connectionLength(e.node, next);
+        final Double known = best.get(next);
+        if (known == null || d < known) {
+          best.put(next, d);
+          queue.add(new Entry(next, d));
+        }
+      }
+    }
+    return new ReachableNodes(source, Arrays.copyOf(settledNodes, size),
+      Arrays.copyOf(settledDistances, size));
+  }
+
+  /**
+   * @return The node the search started from.
+   */
+  public Point getSource() {
+    return source;
+  }
+
+  /**
+   * @return The number of reachable nodes.
+   */
+  public int size() {
+    return nodes.length;
+  }
+
+  /**
+   * @param i The index, nodes are ordered by increasing distance.
+   * @return The node at the specified index.
+   */
+  public Point node(int i) {
+    return nodes[i];
+  }
+
+  /**
+   * @param i The index, nodes are ordered by increasing distance.
+   * @return The shortest path distance from the source to the node at the
+   *         specified index.
+   */
+  public double distance(int i) {
+    return distances[i];
+  }
+
+  /**
+   * @param minDistance The minimum distance.
+   * @return The index of the first node that is at least
+   *         <code>minDistance</code> away from the source, or {@link #size()}
+   *         if there is no such node.
+   */
+  public int indexOfFirstAtLeast(double minDistance) {
+    int lo = 0;
+    int hi = distances.length;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (distances[mid] < minDistance) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Draws, uniformly at random, the index of a node that is at least
+   * <code>minDistance</code> away from the source.
+   * @param minDistance The minimum distance.
+   * @param generator The random generator to use.
+   * @return The index of the node.
+   * @throws IllegalStateException if no node is that far away.
+   */
+  public int randomIndexAtLeast(double minDistance,
+      RandomGenerator generator) {
+    final int first = indexOfFirstAtLeast(minDistance);
+    if (first == nodes.length) {
+      throw new IllegalStateException("No node reachable from " + source
+        + " is at least " + minDistance + " away.");
+    }
+    return first + generator.nextInt(nodes.length - first);
+  }
+
+  static final class Entry implements Comparable<Entry> {
+    final Point node;
+    final double distance;
+
+    Entry(Point n, double d) {
+      node = n;
+      distance = d;
+    }
+
+    @Override
+    public int compareTo(Entry o) {
+      return Double.compare(distance, o.distance);
+    }
+  }
+}
@@ -18,7 +18,6 @@ package org.apache.commons.math3.random;
 
 import java.io.Serializable;
 
-import org.apache.commons.math3.distribution.MixtureMultivariateNormalDistribution;
 import org.apache.commons.math3.exception.NotStrictlyPositiveException;
 import org.apache.commons.math3.exception.OutOfRangeException;
 import org.apache.commons.math3.util.FastMath;
@@ -32,6 +31,10 @@ public abstract class BitsStreamGenerator
                Serializable {
     /** Serializable version identifier */
     private static final long serialVersionUID = 20130104L;
+    /** Univariate mixture used by {@link #nextGmmDouble()}, built once. */
+    private static final GaussianMixture GMM_1D = buildGMM(1);
+    /** Bivariate mixture used by {@link #nextGmmPoint()}, built once. */
+    private static final GaussianMixture GMM_2D = buildGMM(2);
     /** Next gaussian. */
     private double nextGaussian;
 
@@ -103,54 +106,49 @@ public abstract class BitsStreamGenerator
     
     /** {@inheritDoc} */
     public double nextGmmDouble() {
-
-        MixtureMultivariateNormalDistribution gmm = buildGMM(1);
-    	
-        return gmm.sample()[0];
-
+        return GMM_1D.sampleUnivariate(this);
     }
-    
-    public double[] nextGmmPoint() {
 
-        MixtureMultivariateNormalDistribution gmm = buildGMM(2);
-    	
-        return gmm.sample();
+    /** {@inheritDoc} */
+    public double[] nextGmmPoint() {
+        return GMM_2D.sample(this);
+    }
 
-    }    
+    /** {@inheritDoc} */
+    public void nextGmmPoints(double[][] out) {
+        for (final double[] point : out) {
+            GMM_2D.sample(this, point);
+        }
+    }
 
-	private MixtureMultivariateNormalDistribution buildGMM(int nbVariate) {
-		int k=4;
-        int numCols = nbVariate;
+    /**
+     * Builds the default mixture used by the {@code nextGmm*} methods.
+     * @param nbVariate number of variables
+     * @return the mixture
+     */
+    private static GaussianMixture buildGMM(int nbVariate) {
+        final int k = 4;
+        final int numCols = nbVariate;
         final double[] newWeights = new double[k];
         final double[][] newMeans = new double[k][numCols];
 
         for (int j = 0; j < k; j++) {
-            newWeights[j] = 1/(double)k;
+            newWeights[j] = 1 / (double) k;
             for (int col = 0; col < numCols; col++) {
-                newMeans[j][col] = 2*j;
+                newMeans[j][col] = 2 * j;
             }
         }
-        
-        
-        // Converting to arrays for use by fitted model
+
         final double[][][] newCovMatArrays = new double[k][numCols][numCols];
         for (int j = 0; j < k; j++) {
-        	double[][] singleNewCovMatArrays = new double[numCols][numCols];
-        	for (int i = 0; i < singleNewCovMatArrays.length; i++) {
-    			for (int l = 0; l < singleNewCovMatArrays[i].length; l++) {
-    				singleNewCovMatArrays[i][l]=1;
-    			}
-    		}
-            newCovMatArrays[j] = singleNewCovMatArrays;
+            for (int i = 0; i < numCols; i++) {
+                for (int l = 0; l < numCols; l++) {
+                    newCovMatArrays[j][i][l] = 1;
+                }
+            }
         }
-        
-
-        MixtureMultivariateNormalDistribution gmm = 
-        		new MixtureMultivariateNormalDistribution(this, 
-        				MixtureMultivariateNormalDistribution.createComponents(
-        						newWeights, newMeans, newCovMatArrays));
-		return gmm;
-	}
+        return new GaussianMixture(newWeights, newMeans, newCovMatArrays);
+    }
 
     /** {@inheritDoc} */
     public int nextInt() {
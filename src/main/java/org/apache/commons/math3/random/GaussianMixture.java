@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.math3.random;
+
+import java.io.Serializable;
+
+import org.apache.commons.math3.exception.DimensionMismatchException;
+import org.apache.commons.math3.exception.NoDataException;
+import org.apache.commons.math3.exception.NotPositiveException;
+import org.apache.commons.math3.exception.NotStrictlyPositiveException;
+import org.apache.commons.math3.linear.NonPositiveDefiniteMatrixException;
+import org.apache.commons.math3.linear.NonSymmetricMatrixException;
+import org.apache.commons.math3.util.FastMath;
+
+/**
+ * Immutable multivariate Gaussian mixture that is prepared once for fast
+ * sampling.
+ * <p>The mixture weights are normalized and accumulated and the covariance
+ * matrix of every component is factorized as {@code C = L L^T} (Cholesky) when
+ * the mixture is created. Drawing a sample then only costs one uniform
+ * deviate to select the component and {@code dim} Gaussian deviates, i.e.
+ * about the same as {@link RandomGenerator#nextGaussian()} per coordinate,
+ * and no objects are allocated by {@link #sample(RandomGenerator, double[])}.
+ * </p>
+ * <p>Unlike {@link org.apache.commons.math3.distribution.MultivariateNormalDistribution
+ * MultivariateNormalDistribution}, positive semi-definite (singular)
+ * covariance matrices are accepted: the degenerate directions simply get a
+ * zero column in the factor.</p>
+ */
+public final class GaussianMixture implements Serializable {
+    /** Serializable version identifier. */
+    private static final long serialVersionUID = 20201017L;
+    /** Relative threshold below which a pivot is considered to be zero. */
+    private static final double PIVOT_THRESHOLD = 1.0e-12;
+    /** Relative threshold used for the symmetry check. */
+    private static final double SYMMETRY_THRESHOLD = 1.0e-10;
+
+    /** Cumulative, normalized component weights. */
+    private final double[] cumulativeWeights;
+    /** Mean vector of each component. */
+    private final double[][] means;
+    /** Lower triangular Cholesky factor of each component covariance. */
+    private final double[][][] factors;
+    /** Number of variables. */
+    private final int dimension;
+
+    /**
+     * Creates a mixture.
+     *
+     * @param weights Weights of each component, normalized internally.
+     * @param componentMeans Mean vector for each component.
+     * @param covariances Covariance matrix for each component.
+     * @throws NoDataException if there are no components.
+     * @throws DimensionMismatchException if the sizes of the arguments do not
+     * match.
+     * @throws NotPositiveException if any of the weights is negative.
+     * @throws NotStrictlyPositiveException if the weights sum to zero.
+     * @throws NonSymmetricMatrixException if a covariance matrix is not
+     * symmetric.
+     * @throws NonPositiveDefiniteMatrixException if a covariance matrix is not
+     * positive semi-definite.
+     */
+    public GaussianMixture(double[] weights,
+                           double[][] componentMeans,
+                           double[][][] covariances) {
+        final int k = weights.length;
+        if (k == 0) {
+            throw new NoDataException();
+        }
+        if (componentMeans.length != k) {
+            throw new DimensionMismatchException(componentMeans.length, k);
+        }
+        if (covariances.length != k) {
+            throw new DimensionMismatchException(covariances.length, k);
+        }
+        dimension = componentMeans[0].length;
+
+        double sum = 0;
+        for (int j = 0; j < k; j++) {
+            if (weights[j] < 0) {
+                throw new NotPositiveException(weights[j]);
+            }
+            sum += weights[j];
+        }
+        if (!(sum > 0)) {
+            throw new NotStrictlyPositiveException(sum);
+        }
+        cumulativeWeights = new double[k];
+        double acc = 0;
+        for (int j = 0; j < k; j++) {
+            acc += weights[j] / sum;
+            cumulativeWeights[j] = acc;
+        }
+        // guard against rounding errors
+        cumulativeWeights[k - 1] = 1d;
+
+        means = new double[k][];
+        factors = new double[k][][];
+        for (int j = 0; j < k; j++) {
+            if (componentMeans[j].length != dimension) {
+                throw new DimensionMismatchException(componentMeans[j].length,
+                                                     dimension);
+            }
+            means[j] = componentMeans[j].clone();
+            factors[j] = cholesky(covariances[j], dimension);
+        }
+    }
+
+    /**
+     * @return the number of variables of this mixture.
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    /**
+     * @return the number of components of this mixture.
+     */
+    public int getNumberOfComponents() {
+        return means.length;
+    }
+
+    /**
+     * Draws a sample.
+     *
+     * @param rng Random number generator.
+     * @return a new array containing the sample.
+     */
+    public double[] sample(RandomGenerator rng) {
+        final double[] out = new double[dimension];
+        sample(rng, out);
+        return out;
+    }
+
+    /**
+     * Draws a sample into the specified array.
+     *
+     * @param rng Random number generator.
+     * @param out Array of length {@link #getDimension()} that receives the
+     * sample.
+     * @throws DimensionMismatchException if the array has the wrong length.
+     */
+    public void sample(RandomGenerator rng, double[] out) {
+        if (out.length != dimension) {
+            throw new DimensionMismatchException(out.length, dimension);
+        }
+        final int c = selectComponent(rng);
+        final double[] mean = means[c];
+        final double[][] l = factors[c];
+        // out = mean + L z, z filled in place from the last coordinate
+        // backwards so that every z_i is still available when it is needed
+        for (int i = 0; i < dimension; i++) {
+            out[i] = rng.nextGaussian();
+        }
+        for (int i = dimension - 1; i >= 0; i--) {
+            final double[] row = l[i];
+            double v = 0;
+            for (int j = 0; j <= i; j++) {
+                v += row[j] * out[j];
+            }
+            out[i] = v;
+        }
+        for (int i = 0; i < dimension; i++) {
+            out[i] += mean[i];
+        }
+    }
+
+    /**
+     * Draws a sample of a univariate mixture.
+     *
+     * @param rng Random number generator.
+     * @return the sample.
+     * @throws DimensionMismatchException if the mixture is not univariate.
+     */
+    public double sampleUnivariate(RandomGenerator rng) {
+        if (dimension != 1) {
+            throw new DimensionMismatchException(dimension, 1);
+        }
+        final int c = selectComponent(rng);
+        return means[c][0] + factors[c][0][0] * rng.nextGaussian();
+    }
+
+    /**
+     * Selects a component according to the mixture weights.
+     *
+     * @param rng Random number generator.
+     * @return the index of the component.
+     */
+    private int selectComponent(RandomGenerator rng) {
+        final double u = rng.nextDouble();
+        final int last = cumulativeWeights.length - 1;
+        for (int j = 0; j < last; j++) {
+            if (u < cumulativeWeights[j]) {
+                return j;
+            }
+        }
+        return last;
+    }
+
+    /**
+     * Computes the lower triangular Cholesky factor of a symmetric positive
+     * semi-definite matrix.
+     *
+     * @param a Matrix to factorize.
+     * @param n Expected size of the matrix.
+     * @return the factor {@code L} with {@code a = L L^T}; row {@code i} has
+     * length {@code i + 1}.
+     */
+    private static double[][] cholesky(double[][] a, int n) {
+        if (a.length != n) {
+            throw new DimensionMismatchException(a.length, n);
+        }
+        double scale = 0;
+        for (int i = 0; i < n; i++) {
+            if (a[i].length != n) {
+                throw new DimensionMismatchException(a[i].length, n);
+            }
+            scale = FastMath.max(scale, FastMath.abs(a[i][i]));
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < i; j++) {
+                final double threshold = SYMMETRY_THRESHOLD *
+                    FastMath.max(FastMath.abs(a[i][j]), FastMath.abs(a[j][i]));
+                if (FastMath.abs(a[i][j] - a[j][i]) > threshold) {
+                    throw new NonSymmetricMatrixException(i, j,
+                                                          SYMMETRY_THRESHOLD);
+                }
+            }
+        }
+
+        final double zero = PIVOT_THRESHOLD * scale;
+        final double[][] l = new double[n][];
+        for (int i = 0; i < n; i++) {
+            l[i] = new double[i + 1];
+        }
+        for (int j = 0; j < n; j++) {
+            double pivot = a[j][j];
+            for (int k = 0; k < j; k++) {
+                pivot -= l[j][k] * l[j][k];
+            }
+            if (pivot < -zero) {
+                throw new NonPositiveDefiniteMatrixException(pivot, j, zero);
+            }
+            if (pivot <= zero) {
+                // degenerate direction, leave the column at zero
+                continue;
+            }
+            final double d = FastMath.sqrt(pivot);
+            l[j][j] = d;
+            for (int i = j + 1; i < n; i++) {
+                double v = a[i][j];
+                for (int k = 0; k < j; k++) {
+                    v -= l[i][k] * l[j][k];
+                }
+                l[i][j] = v / d;
+            }
+        }
+        return l;
+    }
+}
@@ -148,6 +148,14 @@ public interface RandomGenerator {
     double nextGmmDouble();
 
     double[] nextGmmPoint();
+
+    /**
+     * Fills every row of {@code out} with a point drawn as by
+     * {@link #nextGmmPoint()}, without allocating new arrays.
+     *
+     * @param out rows of length 2 that receive the points
+     */
+    void nextGmmPoints(double[][] out);
     
     
 }
\ No newline at end of file